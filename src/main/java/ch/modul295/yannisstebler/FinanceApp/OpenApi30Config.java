@@ -1,7 +1,10 @@
 package ch.modul295.yannisstebler.financeapp;
 
+import org.springdoc.core.utils.SpringDocUtils;
 import org.springframework.context.annotation.Configuration;
 
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUser;
+
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.enums.SecuritySchemeType;
 import io.swagger.v3.oas.annotations.info.Info;
@@ -17,4 +20,8 @@ import io.swagger.v3.oas.annotations.security.SecurityScheme;
 )
 public class OpenApi30Config {
 
+    static {
+        // Resolved from the token, not a request parameter
+        SpringDocUtils.getConfig().addRequestWrapperToIgnore(AuthenticatedUser.class);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package ch.modul295.yannisstebler.financeapp.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import ch.modul295.yannisstebler.financeapp.model.Category;
+
+/**
+ * In-memory caches of rarely changing entities.
+ */
+@Configuration
+public class CacheConfig {
+
+    @Value("${financeapp.category-cache.maximum-size:10000}")
+    private long categoryCacheMaximumSize;
+
+    // Upper bound for how long another instance can serve a changed category
+    @Value("${financeapp.category-cache.expire-after-write:10m}")
+    private Duration categoryCacheExpireAfterWrite;
+
+    /**
+     * Categories by id, used by the transaction and budget write paths (see CategoryService).
+     */
+    @Bean
+    public Cache<Long, Category> categoryCache() {
+        return Caffeine.newBuilder()
+                .maximumSize(categoryCacheMaximumSize)
+                .expireAfterWrite(categoryCacheExpireAfterWrite)
+                .recordStats()
+                .build();
+    }
+}
@@ -0,0 +1,165 @@
+package ch.modul295.yannisstebler.financeapp.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+
+import ch.modul295.yannisstebler.financeapp.services.ResourceVersionService;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Read replicas, enabled by listing them in financeapp.datasource.replica-urls.
+ * Transactions marked read-only (the get* service methods) run on a replica; all other work, and requests that must
+ * see recent writes (see ReadYourWritesInterceptor), run on the primary database configured under spring.datasource.
+ *
+ * The connection of a transaction is only fetched when its first statement runs, after Spring has marked it read-only,
+ * so the database can be chosen from that flag (see LazyConnectionDataSourceProxy).
+ *
+ * Transactions that may read from a replica use the second-level and query cache without adding to them: a lagging
+ * replica could return rows older than the cached ones, and the query cache cannot tell.
+ */
+@Configuration
+@ConditionalOnExpression("!'${financeapp.datasource.replica-urls:}'.isBlank()")
+public class DataSourceConfig implements WebMvcConfigurer {
+
+    // Seconds since the last replayed transaction, or 0 while the replica has replayed everything it received
+    // (an idle primary does not make the replica lag)
+    private static final String POSTGRES_LAG_QUERY = "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+            + "ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) END";
+
+    @Value("${financeapp.datasource.replica-urls}")
+    private List<String> replicaUrls;
+
+    @Value("${financeapp.datasource.replica-username:${spring.datasource.username:}}")
+    private String replicaUsername;
+
+    @Value("${financeapp.datasource.replica-password:${spring.datasource.password:}}")
+    private String replicaPassword;
+
+    @Value("${financeapp.datasource.replica-lag-query:" + POSTGRES_LAG_QUERY + "}")
+    private String replicaLagQuery;
+
+    // Replicas lagging more are skipped until they catch up
+    @Value("${financeapp.datasource.replica-max-lag:5s}")
+    private Duration replicaMaxLag;
+
+    @Value("${financeapp.datasource.replica-lag-check-interval:1s}")
+    private Duration replicaLagCheckInterval;
+
+    @Autowired
+    private ResourceVersionService resourceVersionService;
+
+    /**
+     * The connection pool of the primary database, configured like the pool Spring Boot creates without replicas.
+     *
+     * @param properties the spring.datasource properties.
+     * @return the connection pool.
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    /**
+     * The connection pools of the replicas, with the pool settings of the primary database.
+     *
+     * @param primaryDataSource the primary database, used when no replica is usable.
+     * @param properties the spring.datasource properties.
+     * @param environment the environment holding the spring.datasource.hikari properties.
+     * @param meterRegistry the registry of the pool and lag metrics.
+     * @return the data source routing to the replicas.
+     */
+    @Bean
+    public ReplicaRoutingDataSource replicaDataSource(HikariDataSource primaryDataSource, DataSourceProperties properties,
+            Environment environment, MeterRegistry meterRegistry) {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (String url : replicaUrls) {
+            HikariDataSource replica = new HikariDataSource();
+            Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(replica));
+            replica.setDriverClassName(properties.determineDriverClassName());
+            replica.setJdbcUrl(url.trim());
+            replica.setUsername(replicaUsername);
+            replica.setPassword(replicaPassword);
+            replica.setPoolName("replica-" + (replicas.size() + 1));
+            replica.setReadOnly(true);
+            replica.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, replicaLagQuery, replicaMaxLag, meterRegistry);
+    }
+
+    /**
+     * The data source used by JPA, JdbcTemplate and Flyway: read-only transactions go to the replicas.
+     *
+     * @param primaryDataSource the primary database.
+     * @param replicaDataSource the replicas.
+     * @return the data source.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, ReplicaRoutingDataSource replicaDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+        dataSource.setReadOnlyDataSource(replicaDataSource);
+        return dataSource;
+    }
+
+    /**
+     * The JPA transaction manager, like the one Spring Boot creates, except that read-only transactions not pinned to
+     * the primary database only read the second-level and query cache.
+     *
+     * @param transactionManagerCustomizers the customizers Spring Boot applies to its transaction manager.
+     * @return the transaction manager.
+     */
+    @Bean
+    public PlatformTransactionManager transactionManager(ObjectProvider<TransactionManagerCustomizers> transactionManagerCustomizers) {
+        JpaTransactionManager transactionManager = new JpaTransactionManager() {
+            @Override
+            protected void doBegin(Object transaction, TransactionDefinition definition) {
+                super.doBegin(transaction, definition);
+                if (definition.isReadOnly() && !ReplicaRoutingDataSource.isPinnedToPrimary()) {
+                    EntityManagerHolder holder = (EntityManagerHolder) TransactionSynchronizationManager.getResource(obtainEntityManagerFactory());
+                    holder.getEntityManager().unwrap(Session.class).setCacheMode(CacheMode.GET);
+                }
+            }
+        };
+        transactionManagerCustomizers.ifAvailable(customizers -> customizers.customize(transactionManager));
+        return transactionManager;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new ReadYourWritesInterceptor(resourceVersionService, replicaMaxLag.plus(replicaLagCheckInterval)));
+    }
+}
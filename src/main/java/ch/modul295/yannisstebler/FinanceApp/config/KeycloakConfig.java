@@ -3,10 +3,13 @@ package ch.modul295.yannisstebler.financeapp.config;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.KeycloakBuilder;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+// Disabled where a stub Keycloak bean is provided instead (e.g. the load-test harness)
 @Configuration
+@ConditionalOnProperty(name = "financeapp.keycloak.enabled", havingValue = "true", matchIfMissing = true)
 public class KeycloakConfig {
 
     @Value("${keycloak.server-url}")
@@ -0,0 +1,92 @@
+package ch.modul295.yannisstebler.financeapp.config;
+
+import java.time.Duration;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUser;
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUserToken;
+import ch.modul295.yannisstebler.financeapp.services.ResourceVersionService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Pins requests to the primary database while a replica could still miss a recent write (see ReplicaRoutingDataSource):
+ * write requests themselves, reads of a user who sent a write request within the window, and reads of a view
+ * (own data, or all data for admins) that changed within the window. The window covers the maximum replica lag
+ * plus the interval of the lag check.
+ *
+ * Other requests, and work outside of requests (scheduled jobs, streamed exports), read from the replicas.
+ */
+public class ReadYourWritesInterceptor implements AsyncHandlerInterceptor {
+
+    private final ResourceVersionService resourceVersionService;
+
+    private final Duration window;
+
+    // Usernames that sent a write request within the window
+    private final Cache<String, Boolean> recentWriters;
+
+    /**
+     * Constructor for ReadYourWritesInterceptor.
+     *
+     * @param resourceVersionService the service tracking when the data of a user last changed.
+     * @param window how long after a write reads are served by the primary database.
+     */
+    public ReadYourWritesInterceptor(ResourceVersionService resourceVersionService, Duration window) {
+        this.resourceVersionService = resourceVersionService;
+        this.window = window;
+        this.recentWriters = Caffeine.newBuilder()
+                .expireAfterWrite(window)
+                .build();
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        AuthenticatedUser user = currentUser();
+        if (user == null) {
+            return true;
+        }
+
+        boolean pinned = isWrite(request)
+                || recentWriters.getIfPresent(user.getUsername()) != null
+                || System.currentTimeMillis() - resourceVersionService.getLastChangeTime(user.getOwner()) < window.toMillis();
+        ReplicaRoutingDataSource.setPinnedToPrimary(pinned);
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        ReplicaRoutingDataSource.setPinnedToPrimary(false);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        AuthenticatedUser user = currentUser();
+        if (user != null && isWrite(request)) {
+            recentWriters.put(user.getUsername(), Boolean.TRUE);
+        }
+        ReplicaRoutingDataSource.setPinnedToPrimary(false);
+    }
+
+    /**
+     * Helper method to check if a request may write, i.e. uses a method other than GET, HEAD or OPTIONS.
+     */
+    private static boolean isWrite(HttpServletRequest request) {
+        String method = request.getMethod();
+        return !method.equals("GET") && !method.equals("HEAD") && !method.equals("OPTIONS");
+    }
+
+    /**
+     * Helper method to get the authenticated user of the current request, or null for anonymous requests.
+     */
+    private static AuthenticatedUser currentUser() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return auth instanceof AuthenticatedUserToken token ? token.getUser() : null;
+    }
+}
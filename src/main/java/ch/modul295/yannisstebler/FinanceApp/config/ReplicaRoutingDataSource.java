@@ -0,0 +1,175 @@
+package ch.modul295.yannisstebler.financeapp.config;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Routes read-only connections to the read replicas, round-robin over the replicas whose replication lag is at most
+ * financeapp.datasource.replica-max-lag. It falls back to the primary database if the current thread is pinned to it
+ * (see ReadYourWritesInterceptor) or no replica is usable.
+ *
+ * The lag of every replica is measured every financeapp.datasource.replica-lag-check-interval with the configured
+ * lag query and exported as the financeapp.datasource.replica.lag gauge (in seconds, NaN while a replica is unreachable).
+ * A replica is only used after its first successful check.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private static final String PRIMARY = "primary";
+
+    // Set for the requests that must see their own (or other recent) writes
+    private static final ThreadLocal<Boolean> pinnedToPrimary = new ThreadLocal<>();
+
+    private final List<HikariDataSource> replicas;
+
+    private final String lagQuery;
+
+    private final double maxLagSeconds;
+
+    // Last measured lag in seconds by pool name, NaN if the last check failed
+    private final Map<String, Double> lags = new ConcurrentHashMap<>();
+
+    // Replicas whose last check failed, so the failure is only logged once
+    private final Set<String> unreachable = new HashSet<>();
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Constructor for ReplicaRoutingDataSource.
+     *
+     * @param primary the primary database, used when no replica may be used.
+     * @param replicas the connection pools of the replicas, closed with this data source.
+     * @param lagQuery the query returning the replication lag of a replica in seconds.
+     * @param maxLag the maximum lag of a replica that is still used.
+     * @param meterRegistry the registry of the lag gauges.
+     */
+    public ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicas, String lagQuery, Duration maxLag,
+            MeterRegistry meterRegistry) {
+        this.replicas = List.copyOf(replicas);
+        this.lagQuery = lagQuery;
+        this.maxLagSeconds = maxLag.toMillis() / 1000.0;
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (HikariDataSource replica : this.replicas) {
+            targets.put(replica.getPoolName(), replica);
+            lags.put(replica.getPoolName(), Double.NaN);
+            Gauge.builder("financeapp.datasource.replica.lag", lags, l -> l.get(replica.getPoolName()))
+                    .description("Replication lag of the read replica at the last check")
+                    .tag("replica", replica.getPoolName())
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+    }
+
+    /**
+     * Pins the read-only connections of the current thread to the primary database, or releases the pin.
+     *
+     * @param pinned true to read from the primary database.
+     */
+    public static void setPinnedToPrimary(boolean pinned) {
+        if (pinned) {
+            pinnedToPrimary.set(Boolean.TRUE);
+        } else {
+            pinnedToPrimary.remove();
+        }
+    }
+
+    /**
+     * Checks whether the read-only connections of the current thread are pinned to the primary database.
+     *
+     * @return true if the current thread reads from the primary database.
+     */
+    public static boolean isPinnedToPrimary() {
+        return pinnedToPrimary.get() != null;
+    }
+
+    /**
+     * Measures the replication lag of every replica.
+     */
+    @Scheduled(fixedDelayString = "${financeapp.datasource.replica-lag-check-interval:1s}")
+    public void checkLag() {
+        for (HikariDataSource replica : replicas) {
+            String name = replica.getPoolName();
+            try {
+                lags.put(name, measureLag(replica));
+                if (unreachable.remove(name)) {
+                    log.info("Read replica {} is reachable again", name);
+                }
+            } catch (SQLException | RuntimeException e) {
+                lags.put(name, Double.NaN);
+                if (unreachable.add(name)) {
+                    log.warn("Replication lag check of {} failed, reading from the other databases: {}", name, e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (isPinnedToPrimary()) {
+            return PRIMARY;
+        }
+
+        List<String> usable = new ArrayList<>(replicas.size());
+        for (HikariDataSource replica : replicas) {
+            // NaN (unreachable or not yet checked) fails the comparison
+            if (lags.get(replica.getPoolName()) <= maxLagSeconds) {
+                usable.add(replica.getPoolName());
+            }
+        }
+        if (usable.isEmpty()) {
+            return PRIMARY;
+        }
+        return usable.get(Math.floorMod(next.getAndIncrement(), usable.size()));
+    }
+
+    @Override
+    public void destroy() {
+        replicas.forEach(HikariDataSource::close);
+    }
+
+    /**
+     * Helper method to run the lag query on a replica.
+     * Returns NaN if the query returns no value, so the replica is skipped until a later check succeeds.
+     */
+    private double measureLag(HikariDataSource replica) throws SQLException {
+        try (Connection connection = replica.getConnection();
+                Statement statement = connection.createStatement();
+                ResultSet result = statement.executeQuery(lagQuery)) {
+            if (!result.next()) {
+                return Double.NaN;
+            }
+            double lag = result.getDouble(1);
+            return result.wasNull() ? Double.NaN : lag;
+        }
+    }
+}
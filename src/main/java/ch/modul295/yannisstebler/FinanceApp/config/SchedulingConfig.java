@@ -0,0 +1,13 @@
+package ch.modul295.yannisstebler.financeapp.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables @Scheduled background jobs (e.g. partition maintenance).
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+
+}
@@ -0,0 +1,76 @@
+package ch.modul295.yannisstebler.financeapp.config;
+
+import java.util.List;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUserArgumentResolver;
+
+/**
+ * Registers the AuthenticatedUser controller parameter and the binary response formats.
+ * Besides JSON, every endpoint serves and accepts Smile (application/x-jackson-smile) and CBOR (application/cbor),
+ * selected through the Accept and Content-Type headers. Both formats use the ObjectMapper settings of the JSON converter.
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(new AuthenticatedUserArgumentResolver());
+    }
+
+    /**
+     * Replaces the default Smile converter, which does not use Spring Boot's ObjectMapper settings.
+     *
+     * @param builder the ObjectMapper builder configured by Spring Boot.
+     * @return the Smile message converter.
+     */
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(smileFactory()).build());
+    }
+
+    /**
+     * Replaces the default CBOR converter, which does not use Spring Boot's ObjectMapper settings.
+     *
+     * @param builder the ObjectMapper builder configured by Spring Boot.
+     * @return the CBOR message converter.
+     */
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(cborFactory()).build());
+    }
+
+    /**
+     * Creates the Smile factory of the Smile converter.
+     * Short string values (category names, descriptions and owners repeated in every transaction) are written once per
+     * response and referenced afterwards.
+     *
+     * @return the Smile factory.
+     */
+    public static SmileFactory smileFactory() {
+        return SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build();
+    }
+
+    /**
+     * Creates the CBOR factory of the CBOR converter.
+     * String references (the stringref extension) stay disabled, since not every CBOR decoder supports them.
+     *
+     * @return the CBOR factory.
+     */
+    public static CBORFactory cborFactory() {
+        return new CBORFactory();
+    }
+}
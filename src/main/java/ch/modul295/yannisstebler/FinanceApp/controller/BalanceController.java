@@ -0,0 +1,71 @@
+package ch.modul295.yannisstebler.financeapp.controller;
+
+import java.time.LocalDate;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import ch.modul295.yannisstebler.financeapp.model.dto.BalanceDTO;
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUser;
+import ch.modul295.yannisstebler.financeapp.security.Roles;
+import ch.modul295.yannisstebler.financeapp.services.BalanceService;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import jakarta.annotation.security.RolesAllowed;
+
+/**
+ * Controller class for balance queries.
+ * Provides endpoints for reading a user's balance on any day and for rebuilding the balance index.
+ */
+@RestController
+@RequestMapping("/api/balance")
+@SecurityRequirement(name = "bearerAuth")
+@Validated
+public class BalanceController {
+
+    @Autowired
+    private BalanceService balanceService;
+
+    /**
+     * Endpoint to get the balance (incomes minus expenses) at the end of a day.
+     * Admins can query the balance of any user, normal users only their own.
+     *
+     * @param currentUser The authenticated user.
+     * @param at The day (yyyy-MM-dd), today if omitted.
+     * @param username The user whose balance is returned (admins only), the authenticated user if omitted.
+     * @return The balance, or HTTP status FORBIDDEN if a normal user asks for another user's balance.
+     */
+    @GetMapping
+    @RolesAllowed(Roles.USER)
+    public ResponseEntity<BalanceDTO> getBalance(AuthenticatedUser currentUser,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate at,
+            @RequestParam(required = false) String username) {
+        if (username != null && !username.equals(currentUser.getUsername()) && !currentUser.isAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        String owner = username == null ? currentUser.getUsername() : username;
+        LocalDate day = at == null ? LocalDate.now() : at;
+        return ResponseEntity.ok(new BalanceDTO(owner, day, balanceService.getBalance(owner, day)));
+    }
+
+    /**
+     * Endpoint to recompute the balance index from the transactions.
+     * Only admins can rebuild the balance index.
+     *
+     * @param username The user whose index is rebuilt, all users if omitted.
+     * @return The number of index nodes written.
+     */
+    @PostMapping("/rebuild")
+    @RolesAllowed(Roles.ADMIN)
+    public ResponseEntity<Integer> rebuildBalances(@RequestParam(required = false) String username) {
+        return ResponseEntity.ok(balanceService.rebuildBalances(username));
+    }
+}
@@ -1,27 +1,38 @@
 package ch.modul295.yannisstebler.financeapp.controller;
 
+import java.time.YearMonth;
 import java.util.List;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import ch.modul295.yannisstebler.financeapp.model.Budget;
 import ch.modul295.yannisstebler.financeapp.model.dto.BudgetDTO;
+import ch.modul295.yannisstebler.financeapp.model.dto.BudgetPatchDTO;
+import ch.modul295.yannisstebler.financeapp.model.dto.BudgetUtilisationDTO;
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUser;
 import ch.modul295.yannisstebler.financeapp.security.Roles;
 import ch.modul295.yannisstebler.financeapp.services.BudgetService;
+import ch.modul295.yannisstebler.financeapp.services.IdempotencyService;
+import ch.modul295.yannisstebler.financeapp.services.ResourceVersionService;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import jakarta.annotation.security.RolesAllowed;
 
@@ -38,143 +49,180 @@ public class BudgetController {
     @Autowired
     private BudgetService budgetService;
 
-    /**
-     * Helper method to extract username from JWT token.
-     *
-     * @param auth The authentication object containing the JWT token.
-     * @return The username from the JWT token.
-     */
-    private String getUsernameFromAuth(Authentication auth) {
-        Jwt jwt = (Jwt) auth.getPrincipal();
-        return jwt.getClaim("preferred_username");
-    }
+    @Autowired
+    private ResourceVersionService resourceVersionService;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    // Clients may keep list responses but must revalidate them with If-None-Match on every use.
+    // The ETag does not depend on the format, so the response varies by Accept
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
 
     /**
      * Endpoint to get all budgets for the authenticated user or for admins.
+     * The list carries an ETag that only changes when the user's budgets change.
      *
-     * @param auth The authentication object containing user details.
-     * @return A list of budgets.
+     * @param currentUser The authenticated user.
+     * @param webRequest The request, checked for a matching If-None-Match header.
+     * @return A list of budgets, or HTTP status NOT_MODIFIED if the client's copy is current.
      */
     @GetMapping
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<List<Budget>> getAllBudgets(Authentication auth) {
-        String username = getUsernameFromAuth(auth);
-
-        // Check if the user is an admin
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))) {
-            // Admin can access all budgets
-            return ResponseEntity.ok(budgetService.getAllBudgets());
+    public ResponseEntity<List<Budget>> getAllBudgets(AuthenticatedUser currentUser, WebRequest webRequest) {
+        String eTag = resourceVersionService.getETag(ResourceVersionService.Resource.BUDGETS, currentUser.getOwner());
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(REVALIDATE).varyBy(HttpHeaders.ACCEPT)
+                    .build();
         }
 
-        // Normal users can only access their own budgets
-        List<Budget> userBudgets = budgetService.getAllBudgets().stream()
-                .filter(budget -> budget.getKeycloak_username().equals(username))
-                .toList();
-        return ResponseEntity.ok(userBudgets);
+        // Admins (no owner) get all budgets, normal users only their own
+        List<Budget> budgets = budgetService.getAllBudgets(currentUser.getOwner());
+        return ResponseEntity.ok().eTag(eTag).cacheControl(REVALIDATE).varyBy(HttpHeaders.ACCEPT).body(budgets);
+    }
+
+    /**
+     * Endpoint to get how much of each budget has been spent in a month.
+     * Admins get the utilisation of every user's budgets, normal users only of their own.
+     *
+     * @param currentUser The authenticated user.
+     * @param month The month (yyyy-MM), the current month if omitted.
+     * @return One entry per budget with the spent and remaining amount.
+     */
+    @GetMapping("/utilisation")
+    @RolesAllowed(Roles.USER)
+    public ResponseEntity<List<BudgetUtilisationDTO>> getBudgetUtilisation(AuthenticatedUser currentUser,
+            @RequestParam(required = false) YearMonth month) {
+        YearMonth period = month == null ? YearMonth.now() : month;
+        return ResponseEntity.ok(budgetService.getBudgetUtilisation(currentUser.getOwner(), period));
     }
 
     /**
      * Endpoint to get a specific budget by its ID.
      * Admins can access any budget, while normal users can only access their own.
      *
-     * @param auth The authentication object containing user details.
+     * @param currentUser The authenticated user.
      * @param id The ID of the budget.
-     * @return The requested budget.
+     * @return The requested budget, HTTP status NOT_FOUND if it does not exist or FORBIDDEN if the user doesn't own it.
      */
     @GetMapping("/{id}")
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<Budget> getBudgetById(Authentication auth, @PathVariable Long id) {
-        String username = getUsernameFromAuth(auth);
-        Optional<Budget> returnedBudget = budgetService.getBudgetById(id);
-
-        // Check if the user is an admin
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))) {
-            // Admin can access any budget
-            return returnedBudget.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
-        }
-
-        // Normal users can only access their own budget
-        if (returnedBudget.isPresent() && returnedBudget.get().getKeycloak_username().equals(username)) {
+    public ResponseEntity<Budget> getBudgetById(AuthenticatedUser currentUser, @PathVariable Long id) {
+        Optional<Budget> returnedBudget = budgetService.getBudgetById(id, currentUser.getOwner());
+        if (returnedBudget.isPresent()) {
             return ResponseEntity.ok(returnedBudget.get());
         }
 
-        return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        return notFoundOrForbidden(id);
     }
 
     /**
      * Endpoint to create a new budget.
      * Only users with the USER role can create budgets.
      *
-     * @param auth The authentication object containing user details.
+     * @param currentUser The authenticated user.
      * @param budget The budget data to be created.
-     * @return The created budget.
+     * @param idempotencyKey Optional key of the request; retries with the same key get the first response instead of
+     *        creating the budget again (see IdempotencyService).
+     * @return The created budget, or HTTP status BAD_REQUEST if the category is invalid.
      */
     @PostMapping
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<Budget> createBudget(Authentication auth, @RequestBody BudgetDTO budget) {
-        String username = getUsernameFromAuth(auth);
-        Budget createdBudget = budgetService.createBudget(username, budget);
-        return ResponseEntity.status(HttpStatus.CREATED).body(createdBudget);
+    public ResponseEntity<Budget> createBudget(AuthenticatedUser currentUser, @RequestBody BudgetDTO budget,
+            @RequestHeader(name = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        String username = currentUser.getUsername();
+        return idempotencyService.execute(username, "POST /api/budgets", idempotencyKey, budget, () -> {
+            try {
+                Budget createdBudget = budgetService.createBudget(username, budget);
+                return ResponseEntity.status(HttpStatus.CREATED).body(createdBudget);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+            }
+        });
     }
 
     /**
      * Endpoint to update an existing budget.
      * Admins can update any budget, while normal users can only update their own.
      *
-     * @param auth The authentication object containing user details.
+     * @param currentUser The authenticated user.
      * @param id The ID of the budget to be updated.
      * @param budget The new budget data.
-     * @return The updated budget.
+     * @return HTTP status NO_CONTENT if updated, BAD_REQUEST if the category is invalid, NOT_FOUND if it does not exist
+     *         or FORBIDDEN if the user doesn't own it.
      */
     @PutMapping("/{id}")
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<Budget> updateBudget(Authentication auth, @PathVariable Long id, @RequestBody BudgetDTO budget) {
-        String username = getUsernameFromAuth(auth);
-        Optional<Budget> returnedBudget = budgetService.getBudgetById(id);
-
-        // Check if the user is an admin
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))) {
-            // Admin can update any budget
-            Budget updatedBudget = budgetService.updateBudget(id, budget);
-            return ResponseEntity.ok(updatedBudget);
+    public ResponseEntity<Void> updateBudget(AuthenticatedUser currentUser, @PathVariable Long id, @RequestBody BudgetDTO budget) {
+        try {
+            if (budgetService.updateBudget(currentUser.getOwner(), id, budget)) {
+                return ResponseEntity.noContent().build();
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
         }
 
-        // Normal users can only update their own budget
-        if (returnedBudget.isPresent() && returnedBudget.get().getKeycloak_username().equals(username)) {
-            Budget updatedBudget = budgetService.updateBudget(id, budget);
-            return ResponseEntity.ok(updatedBudget);
+        return notFoundOrForbidden(id);
+    }
+
+    /**
+     * Endpoint to change some fields of a budget; fields that are missing or null keep their value.
+     * With a version in the body, the change is only applied if the budget still has this version.
+     * Admins can change any budget, normal users only their own.
+     *
+     * @param currentUser The authenticated user.
+     * @param id The ID of the budget to be changed.
+     * @param patch The fields to change.
+     * @return The changed budget with its new version, HTTP status CONFLICT if its version does not match or it was changed
+     *         concurrently, BAD_REQUEST if the category is invalid, NOT_FOUND if it does not exist or FORBIDDEN if the user doesn't own it.
+     */
+    @PatchMapping("/{id}")
+    @RolesAllowed(Roles.USER)
+    public ResponseEntity<Budget> patchBudget(AuthenticatedUser currentUser, @PathVariable Long id, @RequestBody BudgetPatchDTO patch) {
+        Optional<Budget> patchedBudget;
+        try {
+            patchedBudget = budgetService.patchBudget(currentUser.getOwner(), id, patch);
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+        if (patchedBudget.isPresent()) {
+            return ResponseEntity.ok(patchedBudget.get());
         }
 
-        return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        return notFoundOrForbidden(id);
     }
 
     /**
      * Endpoint to delete a budget by its ID.
      * Admins can delete any budget, while normal users can only delete their own.
      *
-     * @param auth The authentication object containing user details.
+     * @param currentUser The authenticated user.
      * @param id The ID of the budget to be deleted.
-     * @return HTTP status indicating the result of the deletion.
+     * @return HTTP status NO_CONTENT if deleted, NOT_FOUND if it does not exist or FORBIDDEN if the user doesn't own it.
      */
     @DeleteMapping("/{id}")
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<Void> deleteBudget(Authentication auth, @PathVariable Long id) {
-        String username = getUsernameFromAuth(auth);
-        Optional<Budget> returnedBudget = budgetService.getBudgetById(id);
-
-        // Check if the user is an admin
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))) {
-            // Admin can delete any budget
-            budgetService.deleteBudget(id);
+    public ResponseEntity<Void> deleteBudget(AuthenticatedUser currentUser, @PathVariable Long id) {
+        if (budgetService.deleteBudget(id, currentUser.getOwner())) {
             return ResponseEntity.noContent().build();
         }
 
-        // Normal users can only delete their own budget
-        if (returnedBudget.isPresent() && returnedBudget.get().getKeycloak_username().equals(username)) {
-            budgetService.deleteBudget(id);
-            return ResponseEntity.noContent().build();
-        }
+        return notFoundOrForbidden(id);
+    }
 
-        return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    /**
+     * Helper method to answer an owner-scoped operation that matched no budget.
+     * Only this failure path pays for the extra existence check.
+     *
+     * @param id The ID of the budget.
+     * @return HTTP status FORBIDDEN if the budget exists but belongs to another user, otherwise NOT_FOUND.
+     */
+    private <T> ResponseEntity<T> notFoundOrForbidden(Long id) {
+        if (budgetService.budgetExists(id)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
     }
 }
@@ -4,23 +4,30 @@ import java.util.List;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import ch.modul295.yannisstebler.financeapp.model.Category;
+import ch.modul295.yannisstebler.financeapp.model.dto.CacheStatsDTO;
+import ch.modul295.yannisstebler.financeapp.model.dto.CategoryPatchDTO;
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUser;
 import ch.modul295.yannisstebler.financeapp.security.Roles;
 import ch.modul295.yannisstebler.financeapp.services.CategoryService;
+import ch.modul295.yannisstebler.financeapp.services.ResourceVersionService;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import jakarta.annotation.security.RolesAllowed;
 
@@ -37,86 +44,79 @@ public class CategoryController {
     @Autowired
     private CategoryService categoryService;
 
-    /**
-     * Helper method to extract username from JWT token.
-     *
-     * @param auth The authentication object containing the JWT token.
-     * @return The username from the JWT token.
-     */
-    private String getUsernameFromAuth(Authentication auth) {
-        Jwt jwt = (Jwt) auth.getPrincipal();
-        return jwt.getClaim("preferred_username");
-    }
+    @Autowired
+    private ResourceVersionService resourceVersionService;
+
+    // Clients may keep list responses but must revalidate them with If-None-Match on every use.
+    // The ETag does not depend on the format, so the response varies by Accept
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
 
     /**
      * Endpoint to retrieve all categories.
      * Only users with the USER role can access this endpoint.
      * Admins can access all categories, normal users only their own.
+     * The list carries an ETag that only changes when the user's categories change.
      *
-     * @param auth The authentication object containing the JWT token.
-     * @return A list of categories.
+     * @param currentUser The authenticated user.
+     * @param webRequest The request, checked for a matching If-None-Match header.
+     * @return A list of categories, or HTTP status NOT_MODIFIED if the client's copy is current.
      */
     @GetMapping
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<List<Category>> getAllCategories(Authentication auth) {
-        String username = getUsernameFromAuth(auth);
-
-        // Check if the user is an admin
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))) {
-            // Admin can access all categories
-            List<Category> categories = categoryService.getAllCategories();
-            return ResponseEntity.ok(categories);
+    public ResponseEntity<List<Category>> getAllCategories(AuthenticatedUser currentUser, WebRequest webRequest) {
+        String eTag = resourceVersionService.getETag(ResourceVersionService.Resource.CATEGORIES, currentUser.getOwner());
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(REVALIDATE).varyBy(HttpHeaders.ACCEPT)
+                    .build();
         }
 
-        // Normal users can only access their own categories
-        List<Category> userCategories = categoryService.getAllCategories().stream()
-                .filter(category -> category.getKeycloak_username().equals(username))
-                .toList();
+        // Admins (no owner) get all categories, normal users only their own
+        List<Category> categories = categoryService.getAllCategories(currentUser.getOwner());
+        return ResponseEntity.ok().eTag(eTag).cacheControl(REVALIDATE).varyBy(HttpHeaders.ACCEPT).body(categories);
+    }
 
-        return ResponseEntity.ok(userCategories);
+    /**
+     * Endpoint to retrieve the hit, miss and eviction counters of the category cache, e.g. to tune its size and TTL.
+     * Only admins can access this endpoint.
+     *
+     * @return The cache statistics.
+     */
+    @GetMapping("/cache-stats")
+    @RolesAllowed(Roles.ADMIN)
+    public ResponseEntity<CacheStatsDTO> getCategoryCacheStats() {
+        return ResponseEntity.ok(categoryService.getCategoryCacheStats());
     }
 
     /**
      * Endpoint to retrieve a specific category by its ID.
      * Only users with the USER role can access this endpoint.
+     * Admins can access any category, normal users only their own.
      *
      * @param id The ID of the category.
-     * @return The requested category or HTTP status NOT_FOUND if the category does not exist.
+     * @return The requested category, HTTP status NOT_FOUND if it does not exist or FORBIDDEN if the user doesn't own it.
      */
     @GetMapping("/{id}")
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<Category> getCategoryById(@PathVariable Long id, Authentication auth) {
-        String username = getUsernameFromAuth(auth);
-        Optional<Category> category = categoryService.getCategoryById(id);
-
-        if (category.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
-        }
-
-        // Admins can access any category
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))) {
-            return ResponseEntity.ok(category.get());
-        }
-
-        // Normal users can only access their own categories
-        if (category.get().getKeycloak_username().equals(username)) {
+    public ResponseEntity<Category> getCategoryById(@PathVariable Long id, AuthenticatedUser currentUser) {
+        Optional<Category> category = categoryService.getCategoryById(id, currentUser.getOwner());
+        if (category.isPresent()) {
             return ResponseEntity.ok(category.get());
         }
 
-        return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        return notFoundOrForbidden(id);
     }
 
     /**
      * Endpoint to create a new category.
-     * Only users with the ADMIN role can create a category.
+     * Only users with the USER role can create a category.
      *
      * @param category The category data to be created.
      * @return The created category.
      */
     @PostMapping
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<Category> createCategory(Authentication auth, @RequestBody Category category) {
-        String username = getUsernameFromAuth(auth);
+    public ResponseEntity<Category> createCategory(AuthenticatedUser currentUser, @RequestBody Category category) {
+        String username = currentUser.getUsername();
         category.setKeycloak_username(username);
         Category createdCategory = categoryService.createCategory(category);
         return ResponseEntity.status(HttpStatus.CREATED).body(createdCategory);
@@ -124,43 +124,77 @@ public class CategoryController {
 
     /**
      * Endpoint to update an existing category by its ID.
-     * Only users with the ADMIN role can update a category.
+     * Admins can update any category, normal users only their own.
      *
      * @param id The ID of the category to be updated.
      * @param category The updated category data.
-     * @return The updated category or HTTP status NOT_FOUND if the category does not exist.
+     * @return HTTP status NO_CONTENT if updated, NOT_FOUND if it does not exist or FORBIDDEN if the user doesn't own it.
      */
     @PutMapping("/{id}")
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<Category> updateCategory(Authentication auth, @PathVariable Long id, @RequestBody Category category) {
-        Optional<Category> existingCategory = categoryService.getCategoryById(id);
-        String username = getUsernameFromAuth(auth);
-        category.setKeycloak_username(username);
-        if (existingCategory.isPresent()) {
-            Category updatedCategory = categoryService.updateCategory(id, category);
-            return ResponseEntity.ok(updatedCategory);
+    public ResponseEntity<Void> updateCategory(AuthenticatedUser currentUser, @PathVariable Long id, @RequestBody Category category) {
+        if (categoryService.updateCategory(currentUser.getOwner(), id, category)) {
+            return ResponseEntity.noContent().build();
         }
 
-        return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        return notFoundOrForbidden(id);
+    }
+
+    /**
+     * Endpoint to change some fields of a category; fields that are missing or null keep their value.
+     * With a version in the body, the change is only applied if the category still has this version.
+     * Admins can change any category, normal users only their own.
+     *
+     * @param currentUser The authenticated user.
+     * @param id The ID of the category to be changed.
+     * @param patch The fields to change.
+     * @return The changed category with its new version, HTTP status CONFLICT if its version does not match or it was changed
+     *         concurrently, NOT_FOUND if it does not exist or FORBIDDEN if the user doesn't own it.
+     */
+    @PatchMapping("/{id}")
+    @RolesAllowed(Roles.USER)
+    public ResponseEntity<Category> patchCategory(AuthenticatedUser currentUser, @PathVariable Long id, @RequestBody CategoryPatchDTO patch) {
+        Optional<Category> patchedCategory;
+        try {
+            patchedCategory = categoryService.patchCategory(currentUser.getOwner(), id, patch);
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        if (patchedCategory.isPresent()) {
+            return ResponseEntity.ok(patchedCategory.get());
+        }
+
+        return notFoundOrForbidden(id);
     }
 
     /**
      * Endpoint to delete a category by its ID.
-     * Only users with the ADMIN role can delete a category.
+     * Admins can delete any category, normal users only their own.
      *
      * @param id The ID of the category to be deleted.
-     * @return HTTP status indicating the result of the deletion.
+     * @return HTTP status NO_CONTENT if deleted, NOT_FOUND if it does not exist or FORBIDDEN if the user doesn't own it.
      */
     @DeleteMapping("/{id}")
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<Void> deleteCategory(@PathVariable Long id) {
-        Optional<Category> category = categoryService.getCategoryById(id);
-
-        if (category.isPresent()) {
-            categoryService.deleteCategory(id);
+    public ResponseEntity<Void> deleteCategory(AuthenticatedUser currentUser, @PathVariable Long id) {
+        if (categoryService.deleteCategory(id, currentUser.getOwner())) {
             return ResponseEntity.noContent().build();
         }
 
+        return notFoundOrForbidden(id);
+    }
+
+    /**
+     * Helper method to answer an owner-scoped operation that matched no category.
+     * Only this failure path pays for the extra existence check.
+     *
+     * @param id The ID of the category.
+     * @return HTTP status FORBIDDEN if the category exists but belongs to another user, otherwise NOT_FOUND.
+     */
+    private <T> ResponseEntity<T> notFoundOrForbidden(Long id) {
+        if (categoryService.categoryExists(id)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
         return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
     }
 }
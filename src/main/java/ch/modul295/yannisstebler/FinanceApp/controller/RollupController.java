@@ -0,0 +1,62 @@
+package ch.modul295.yannisstebler.financeapp.controller;
+
+import java.time.YearMonth;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import ch.modul295.yannisstebler.financeapp.model.SpendRollup;
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUser;
+import ch.modul295.yannisstebler.financeapp.security.Roles;
+import ch.modul295.yannisstebler.financeapp.services.SpendRollupService;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import jakarta.annotation.security.RolesAllowed;
+
+/**
+ * Controller class for the monthly spend rollups.
+ * Provides endpoints for reading the rollups and for rebuilding them from the transactions.
+ */
+@RestController
+@RequestMapping("/api/rollups")
+@SecurityRequirement(name = "bearerAuth")
+@Validated
+public class RollupController {
+
+    @Autowired
+    private SpendRollupService spendRollupService;
+
+    /**
+     * Endpoint to get the income and expense totals per category for a month.
+     * Admins get the rollups of every user, normal users only their own.
+     *
+     * @param currentUser The authenticated user.
+     * @param month The month (yyyy-MM), the current month if omitted.
+     * @return The rollup rows of the month.
+     */
+    @GetMapping
+    @RolesAllowed(Roles.USER)
+    public ResponseEntity<List<SpendRollup>> getRollups(AuthenticatedUser currentUser, @RequestParam(required = false) YearMonth month) {
+        YearMonth period = month == null ? YearMonth.now() : month;
+        return ResponseEntity.ok(spendRollupService.getRollups(currentUser.getOwner(), period));
+    }
+
+    /**
+     * Endpoint to recompute the rollups from the transactions.
+     * Only admins can rebuild the rollups.
+     *
+     * @param username The user whose rollups are rebuilt, all users if omitted.
+     * @return The number of rollup rows written.
+     */
+    @PostMapping("/rebuild")
+    @RolesAllowed(Roles.ADMIN)
+    public ResponseEntity<Integer> rebuildRollups(@RequestParam(required = false) String username) {
+        return ResponseEntity.ok(spendRollupService.rebuildRollups(username));
+    }
+}
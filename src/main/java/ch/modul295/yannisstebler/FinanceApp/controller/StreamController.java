@@ -0,0 +1,54 @@
+package ch.modul295.yannisstebler.financeapp.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUser;
+import ch.modul295.yannisstebler.financeapp.security.Roles;
+import ch.modul295.yannisstebler.financeapp.services.ChangeStreamService;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import jakarta.annotation.security.RolesAllowed;
+
+/**
+ * Controller class for the change stream.
+ * Lets clients refetch the transaction, budget and category lists when they change instead of polling them.
+ */
+@RestController
+@RequestMapping("/api/stream")
+@SecurityRequirement(name = "bearerAuth")
+public class StreamController {
+
+    @Autowired
+    private ChangeStreamService changeStreamService;
+
+    /**
+     * Endpoint to receive Server-Sent Events whenever transactions, budgets or categories change.
+     * Admins receive the changes of every user, while normal users only receive changes of their own data.
+     * Each event is named after the changed resource (transactions, budgets or categories) and carries the new ETag
+     * of its list endpoint. Budget alerts are sent as budget-alert events.
+     *
+     * @param currentUser The authenticated user.
+     * @param lastEventId The ID of the last event received, sent by clients reconnecting to get the missed changes.
+     * @return The event stream, or HTTP status SERVICE_UNAVAILABLE if too many streams are open.
+     */
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @RolesAllowed(Roles.USER)
+    public ResponseEntity<SseEmitter> streamChanges(AuthenticatedUser currentUser,
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+        SseEmitter emitter = changeStreamService.connect(currentUser.getOwner(), lastEventId);
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        // Reverse proxies such as nginx would otherwise buffer the events
+        return ResponseEntity.ok().cacheControl(CacheControl.noStore()).header("X-Accel-Buffering", "no").body(emitter);
+    }
+}
@@ -1,26 +1,49 @@
 package ch.modul295.yannisstebler.financeapp.controller;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import ch.modul295.yannisstebler.financeapp.model.dto.TransactionBatchResultDTO;
 import ch.modul295.yannisstebler.financeapp.model.dto.TransactionDTO;
+import ch.modul295.yannisstebler.financeapp.model.dto.TransactionPageDTO;
+import ch.modul295.yannisstebler.financeapp.model.dto.TransactionPatchDTO;
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUser;
 import ch.modul295.yannisstebler.financeapp.security.Roles;
+import ch.modul295.yannisstebler.financeapp.services.IdempotencyService;
+import ch.modul295.yannisstebler.financeapp.services.ResourceVersionService;
+import ch.modul295.yannisstebler.financeapp.services.TransactionExportService;
 import ch.modul295.yannisstebler.financeapp.services.TransactionService;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import jakarta.annotation.security.RolesAllowed;
@@ -38,43 +61,98 @@ public class TransactionController {
     @Autowired
     private TransactionService transactionService;
 
+    @Autowired
+    private TransactionExportService transactionExportService;
+
+    @Autowired
+    private ResourceVersionService resourceVersionService;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Value("${financeapp.transactions.batch-max-items:1000}")
+    private int batchMaxItems;
+
+    // Clients may keep list responses but must revalidate them with If-None-Match on every use.
+    // The ETag does not depend on the format, so the response varies by Accept
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
     /**
-     * Helper method to extract the username from the JWT token.
-     * 
-     * @param auth The authentication object containing the JWT.
-     * @return The username extracted from the JWT token.
+     * Endpoint to retrieve transactions page by page, newest first.
+     * Only users with the USER role can access this endpoint.
+     * Admins page through all transactions, while normal users only page through their own transactions.
+     * Pages carry an ETag that only changes when the user's transactions change.
+     *
+     * @param currentUser The authenticated user.
+     * @param webRequest The request, checked for a matching If-None-Match header.
+     * @param after The cursor returned with the previous page, or empty for the first page.
+     * @param limit The maximum number of transactions per page.
+     * @return The requested page and the cursor for the next one, HTTP status NOT_MODIFIED if the client's copy is current,
+     *         or BAD_REQUEST if the cursor or limit is invalid.
      */
-    private String getUsernameFromAuth(Authentication auth) {
-        Jwt jwt = (Jwt) auth.getPrincipal();
-        return jwt.getClaim("preferred_username");
+    @GetMapping
+    @RolesAllowed(Roles.USER)
+    public ResponseEntity<TransactionPageDTO> getAllTransactions(AuthenticatedUser currentUser, WebRequest webRequest,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit) {
+        // Admins page through all transactions, normal users only through their own
+        String owner = currentUser.getOwner();
+
+        String eTag = resourceVersionService.getETag(ResourceVersionService.Resource.TRANSACTIONS, owner);
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(REVALIDATE).varyBy(HttpHeaders.ACCEPT)
+                    .build();
+        }
+
+        try {
+            return ResponseEntity.ok().eTag(eTag).cacheControl(REVALIDATE).varyBy(HttpHeaders.ACCEPT)
+                    .body(transactionService.getTransactionsPage(owner, after, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
     }
 
     /**
-     * Endpoint to retrieve all transactions.
-     * Only users with the USER role can access this endpoint.
-     * Admins can access all transactions, while normal users can only access their own transactions.
+     * Endpoint to export transactions as a stream of NDJSON lines or CSV records, oldest first.
+     * Rows are streamed from a database cursor straight to the response, so any number of transactions can be exported.
+     * Admins export all transactions, while normal users only export their own transactions.
      *
-     * @param auth The authentication object containing the user's details.
-     * @return A list of transactions that the user can access.
+     * @param currentUser The authenticated user.
+     * @param format The export format, "ndjson" (default) or "csv".
+     * @param from The first day to export (inclusive), or empty for no lower bound.
+     * @param to The last day to export (inclusive), or empty for no upper bound.
+     * @return The streamed export, or HTTP status BAD_REQUEST if the format or range is invalid.
      */
-    @GetMapping
+    @GetMapping("/export")
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<List<Transaction>> getAllTransactions(Authentication auth) {
-        String username = getUsernameFromAuth(auth);
-
-        // Check if the user is an admin
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))) {
-            // Admin can access all transactions
-            List<Transaction> transactions = transactionService.getAllTransactions();
-            return ResponseEntity.ok(transactions);
+    public ResponseEntity<StreamingResponseBody> exportTransactions(AuthenticatedUser currentUser,
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        TransactionExportService.Format exportFormat;
+        try {
+            exportFormat = TransactionExportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+        if (from != null && to != null && from.isAfter(to)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
         }
 
-        // Normal users can only access their own transactions
-        List<Transaction> userTransactions = transactionService.getAllTransactions().stream()
-                .filter(transaction -> transaction.getKeycloak_username().equals(username))
-                .toList();
+        String owner = currentUser.getOwner();
+        // Open ends are bounded by dates every supported database can store
+        ZoneId zone = ZoneId.systemDefault();
+        Date fromDate = Date.from((from == null ? LocalDate.of(1000, 1, 1) : from).atStartOfDay(zone).toInstant());
+        Date toDate = Date.from((to == null ? LocalDate.of(9999, 12, 31) : to).plusDays(1).atStartOfDay(zone).toInstant());
 
-        return ResponseEntity.ok(userTransactions);
+        // Runs on the async request executor after this method returns
+        StreamingResponseBody body = out -> transactionExportService.exportTransactions(owner, fromDate, toDate, exportFormat, out);
+
+        boolean csv = exportFormat == TransactionExportService.Format.CSV;
+        return ResponseEntity.ok()
+                .contentType(csv ? new MediaType("text", "csv", StandardCharsets.UTF_8) : MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"transactions." + (csv ? "csv" : "ndjson") + "\"")
+                .body(body);
     }
 
     /**
@@ -82,45 +160,66 @@ public class TransactionController {
      * Only users with the USER role can access this endpoint.
      * Admins can access any transaction, while normal users can only access their own transactions.
      *
-     * @param auth The authentication object containing the user's details.
+     * @param currentUser The authenticated user.
      * @param id The ID of the transaction to be retrieved.
-     * @return The requested transaction or HTTP status NOT_FOUND if the transaction does not exist.
+     * @return The requested transaction, HTTP status NOT_FOUND if it does not exist or FORBIDDEN if the user doesn't own it.
      */
     @GetMapping("/{id}")
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<Transaction> getTransactionById(Authentication auth, @PathVariable Long id) {
-        String username = getUsernameFromAuth(auth);
-        Optional<Transaction> returnedTransaction = transactionService.getTransactionById(id);
-
-        // Check if the user is an admin
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))) {
-            // Admin can access any transaction
-            return returnedTransaction.map(ResponseEntity::ok)
-                    .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).build());
-        }
-
-        // Normal users can only access their own transaction
-        if (returnedTransaction.isPresent() && returnedTransaction.get().getKeycloak_username().equals(username)) {
+    public ResponseEntity<Transaction> getTransactionById(AuthenticatedUser currentUser, @PathVariable Long id) {
+        Optional<Transaction> returnedTransaction = transactionService.getTransactionById(id, currentUser.getOwner());
+        if (returnedTransaction.isPresent()) {
             return ResponseEntity.ok(returnedTransaction.get());
         }
 
-        return ResponseEntity.status(HttpStatus.FORBIDDEN).build();  // Forbidden if the user doesn't own the transaction
+        return notFoundOrForbidden(id);
     }
 
     /**
      * Endpoint to create a new transaction.
      * Only users with the USER role can create a transaction.
      *
-     * @param auth The authentication object containing the user's details.
+     * @param currentUser The authenticated user.
      * @param transactionDTO The transaction data to be created.
-     * @return The created transaction.
+     * @param idempotencyKey Optional key of the request; retries with the same key get the first response instead of
+     *        creating the transaction again (see IdempotencyService).
+     * @return The created transaction, HTTP status BAD_REQUEST if the category is invalid,
+     *         or CONFLICT if a concurrent write held its rows (retry).
      */
     @PostMapping
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<Transaction> createTransaction(Authentication auth, @RequestBody TransactionDTO transactionDTO) {
-        String username = getUsernameFromAuth(auth);
-        Transaction createdTransaction = transactionService.createTransaction(username, transactionDTO);
-        return ResponseEntity.status(HttpStatus.CREATED).body(createdTransaction);
+    public ResponseEntity<Transaction> createTransaction(AuthenticatedUser currentUser, @RequestBody TransactionDTO transactionDTO,
+            @RequestHeader(name = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        String username = currentUser.getUsername();
+        return idempotencyService.execute(username, "POST /api/transactions", idempotencyKey, transactionDTO, () -> {
+            try {
+                Transaction createdTransaction = transactionService.createTransaction(username, transactionDTO);
+                return ResponseEntity.status(HttpStatus.CREATED).body(createdTransaction);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+            }
+        });
+    }
+
+    /**
+     * Endpoint to create many transactions at once, e.g. when a client syncs transactions recorded offline.
+     * All items are written in one database transaction using JDBC batching.
+     * Only users with the USER role can create transactions.
+     *
+     * @param currentUser The authenticated user.
+     * @param transactionDTOs The transactions to be created.
+     * @return One result per item (created with its ID, or rejected with a reason), HTTP status BAD_REQUEST if the batch is empty or too large,
+     *         or CONFLICT if a concurrent write held its rows (retry).
+     */
+    @PostMapping("/batch")
+    @RolesAllowed(Roles.USER)
+    public ResponseEntity<List<TransactionBatchResultDTO>> createTransactions(AuthenticatedUser currentUser, @RequestBody List<TransactionDTO> transactionDTOs) {
+        if (transactionDTOs == null || transactionDTOs.isEmpty() || transactionDTOs.size() > batchMaxItems) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+
+        String username = currentUser.getUsername();
+        return ResponseEntity.ok(transactionService.createTransactions(username, transactionDTOs));
     }
 
     /**
@@ -128,24 +227,53 @@ public class TransactionController {
      * Only users with the USER role can update their own transactions.
      * Admins can update any transaction.
      *
-     * @param auth The authentication object containing the user's details.
+     * @param currentUser The authenticated user.
      * @param id The ID of the transaction to be updated.
      * @param transaction The updated transaction data.
-     * @return The updated transaction or HTTP status FORBIDDEN if the user doesn't own the transaction.
+     * @return HTTP status NO_CONTENT if updated, BAD_REQUEST if the category is invalid, CONFLICT if a concurrent write
+     *         held its rows (retry), NOT_FOUND if it does not exist or FORBIDDEN if the user doesn't own it.
      */
     @PutMapping("/{id}")
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<Transaction> updateTransaction(Authentication auth, @PathVariable Long id, @RequestBody Transaction transaction) {
-        String username = getUsernameFromAuth(auth);
-
-        // Check if the transaction belongs to the user or if user is an admin
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))
-                || transaction.getKeycloak_username().equals(username)) {
-            Transaction updatedTransaction = transactionService.updateTransaction(username, id, transaction);
-            return ResponseEntity.ok(updatedTransaction);
+    public ResponseEntity<Void> updateTransaction(AuthenticatedUser currentUser, @PathVariable Long id, @RequestBody Transaction transaction) {
+        try {
+            if (transactionService.updateTransaction(currentUser.getOwner(), id, transaction)) {
+                return ResponseEntity.noContent().build();  // 204 No Content
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+
+        return notFoundOrForbidden(id);
+    }
+
+    /**
+     * Endpoint to change some fields of a transaction; fields that are missing or null keep their value.
+     * With a version in the body, the change is only applied if the transaction still has this version.
+     * Admins can change any transaction, normal users only their own.
+     *
+     * @param currentUser The authenticated user.
+     * @param id The ID of the transaction to be changed.
+     * @param patch The fields to change.
+     * @return The changed transaction with its new version, HTTP status CONFLICT if its version does not match or it was changed
+     *         concurrently, BAD_REQUEST if the category is invalid, NOT_FOUND if it does not exist or FORBIDDEN if the user doesn't own it.
+     */
+    @PatchMapping("/{id}")
+    @RolesAllowed(Roles.USER)
+    public ResponseEntity<Transaction> patchTransaction(AuthenticatedUser currentUser, @PathVariable Long id, @RequestBody TransactionPatchDTO patch) {
+        Optional<Transaction> patchedTransaction;
+        try {
+            patchedTransaction = transactionService.patchTransaction(currentUser.getOwner(), id, patch);
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+        if (patchedTransaction.isPresent()) {
+            return ResponseEntity.ok(patchedTransaction.get());
         }
 
-        return ResponseEntity.status(HttpStatus.FORBIDDEN).build();  // Forbidden if the user doesn't own the transaction
+        return notFoundOrForbidden(id);
     }
 
     /**
@@ -153,29 +281,44 @@ public class TransactionController {
      * Only users with the USER role can delete their own transactions.
      * Admins can delete any transaction.
      *
-     * @param auth The authentication object containing the user's details.
+     * @param currentUser The authenticated user.
      * @param id The ID of the transaction to be deleted.
-     * @return HTTP status indicating the result of the deletion.
+     * @return HTTP status NO_CONTENT if deleted, CONFLICT if a concurrent write held its rows (retry),
+     *         NOT_FOUND if it does not exist or FORBIDDEN if the user doesn't own it.
      */
     @DeleteMapping("/{id}")
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<Void> deleteTransaction(Authentication auth, @PathVariable Long id) {
-        String username = getUsernameFromAuth(auth);
-        Optional<Transaction> returnedTransaction = transactionService.getTransactionById(id);
-
-        // Check if the user is an admin
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))) {
-            // Admin can delete any transaction
-            transactionService.deleteTransaction(id);
+    public ResponseEntity<Void> deleteTransaction(AuthenticatedUser currentUser, @PathVariable Long id) {
+        if (transactionService.deleteTransaction(id, currentUser.getOwner())) {
             return ResponseEntity.noContent().build();  // 204 No Content
         }
 
-        // Normal users can only delete their own transaction
-        if (returnedTransaction.isPresent() && returnedTransaction.get().getKeycloak_username().equals(username)) {
-            transactionService.deleteTransaction(id);
-            return ResponseEntity.noContent().build();  // 204 No Content
+        return notFoundOrForbidden(id);
+    }
+
+    /**
+     * Helper method to answer an owner-scoped operation that matched no transaction.
+     * Only this failure path pays for the extra existence check.
+     *
+     * @param id The ID of the transaction.
+     * @return HTTP status FORBIDDEN if the transaction exists but belongs to another user, otherwise NOT_FOUND.
+     */
+    private <T> ResponseEntity<T> notFoundOrForbidden(Long id) {
+        if (transactionService.transactionExists(id)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();  // Forbidden if the user doesn't own the transaction
         }
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
 
-        return ResponseEntity.status(HttpStatus.FORBIDDEN).build();  // Forbidden if the user doesn't own the transaction
+    /**
+     * Handles writes that lost a lock conflict on the rollup or balance rows, e.g. a deadlock the database broke up
+     * or a lock timeout. The write was rolled back and can be retried.
+     *
+     * @param e The exception thrown by the write.
+     * @return HTTP status CONFLICT.
+     */
+    @ExceptionHandler(CannotAcquireLockException.class)
+    public ResponseEntity<Void> handleLockConflict(CannotAcquireLockException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).build();
     }
 }
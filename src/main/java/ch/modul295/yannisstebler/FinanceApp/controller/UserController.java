@@ -4,10 +4,9 @@ import java.util.List;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -19,6 +18,8 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import ch.modul295.yannisstebler.financeapp.model.User;
+import ch.modul295.yannisstebler.financeapp.model.dto.ProvisioningStatusDTO;
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUser;
 import ch.modul295.yannisstebler.financeapp.security.Roles;
 import ch.modul295.yannisstebler.financeapp.services.UserService;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
@@ -41,16 +42,16 @@ public class UserController {
      * Endpoint to retrieve all users. Admins can view all users.
      * Normal users can only view their own information.
      * 
-     * @param auth The authentication object containing the user's details.
+     * @param currentUser The authenticated user.
      * @return A list of users that the requesting user has access to.
      */
     @GetMapping
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<List<User>> getAllUsers(Authentication auth) {
-        String username = ((Jwt) auth.getPrincipal()).getClaim("preferred_username");
+    public ResponseEntity<List<User>> getAllUsers(AuthenticatedUser currentUser) {
+        String username = currentUser.getUsername();
 
         // Check if the user is an admin
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))) {
+        if (currentUser.isAdmin()) {
             // Admin can access all users
             List<User> users = userService.getAllUsers();
             return ResponseEntity.ok(users);
@@ -69,47 +70,54 @@ public class UserController {
      * Normal users can only view their own data.
      *
      * @param id The ID of the user to be retrieved.
-     * @param auth The authentication object containing the user's details.
-     * @return The requested user or HTTP status NOT_FOUND if the user does not exist.
+     * @param currentUser The authenticated user.
+     * @return The requested user, HTTP status NOT_FOUND if it does not exist or FORBIDDEN if it is another user's account.
      */
     @GetMapping("/{id}")
     @RolesAllowed(Roles.USER)
-    public ResponseEntity<User> getUserById(@PathVariable Long id, Authentication auth) {
-        String username = ((Jwt) auth.getPrincipal()).getClaim("preferred_username");
-
-        // Admins can view any user
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))) {
-            Optional<User> user = userService.getUserById(id);
-            return user.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).build());
-        } else {
-            // Normal users can only view themselves
-            Optional<User> user = userService.getUserById(id);
-            if (user.isPresent() && user.get().getUsername().equals(username)) {
-                return ResponseEntity.ok(user.get());
-            }
+    public ResponseEntity<User> getUserById(@PathVariable Long id, AuthenticatedUser currentUser) {
+        Optional<User> user = userService.getUserById(id, currentUser.getOwner());
+        if (user.isPresent()) {
+            return ResponseEntity.ok(user.get());
         }
 
-        return ResponseEntity.status(HttpStatus.FORBIDDEN).build(); // Forbidden if the user doesn't own the account
+        return notFoundOrForbidden(id); // Forbidden if the user doesn't own the account
     }
 
     /**
      * Endpoint to create a new user.
      * This endpoint does not require any authentication or authorization, so it could be publicly accessible.
+     * The Keycloak account is created in the background; the user can log in once the provisioning state is ACTIVE.
      * 
      * @param user The user data to be created.
-     * @return The created user, or an appropriate error status.
+     * @return The created user with HTTP status ACCEPTED, or CONFLICT if the username or email is already taken.
      */
     @PostMapping
     public ResponseEntity<User> createUser(@RequestBody User user) {
-        ResponseEntity<User> response = userService.createUser(user);
-        if (response.getStatusCode() == HttpStatus.CREATED) {
-            return ResponseEntity.status(HttpStatus.CREATED).body(response.getBody());  // 201 Created
-        } else if (response.getStatusCode() == HttpStatus.CONFLICT) {
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(userService.createUser(user));  // 202 Accepted
+        } catch (DataIntegrityViolationException e) {
             return ResponseEntity.status(HttpStatus.CONFLICT).body(null);  // 409 Conflict - User already exists
-        } else if (response.getStatusCode() == HttpStatus.BAD_REQUEST) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);  // 400 Bad Request - Invalid user data
         }
-        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);  // 500 Internal Server Error - Unexpected issue
+    }
+
+    /**
+     * Endpoint to get the provisioning state of a user's Keycloak account. Admins can view any user.
+     * Normal users can only view their own account.
+     *
+     * @param id The ID of the user.
+     * @param currentUser The authenticated user.
+     * @return The provisioning status, HTTP status NOT_FOUND if the user does not exist or FORBIDDEN if it is another user's account.
+     */
+    @GetMapping("/{id}/provisioning")
+    @RolesAllowed(Roles.USER)
+    public ResponseEntity<ProvisioningStatusDTO> getProvisioningStatus(@PathVariable Long id, AuthenticatedUser currentUser) {
+        Optional<ProvisioningStatusDTO> status = userService.getProvisioningStatus(id, currentUser.getOwner());
+        if (status.isPresent()) {
+            return ResponseEntity.ok(status.get());
+        }
+
+        return notFoundOrForbidden(id);
     }
 
     /**
@@ -131,27 +139,30 @@ public class UserController {
      * Normal users can only delete their own account.
      *
      * @param id The ID of the user to be deleted.
-     * @param auth The authentication object containing the user's details.
-     * @return HTTP status indicating the result of the deletion.
+     * @param currentUser The authenticated user.
+     * @return HTTP status NO_CONTENT if deleted, NOT_FOUND if it does not exist or FORBIDDEN if it is another user's account.
      */
     @DeleteMapping("/{id}")
     @RolesAllowed({Roles.ADMIN, Roles.USER})
-    public ResponseEntity<Void> deleteUser(@PathVariable Long id, Authentication auth) {
-        String username = ((Jwt) auth.getPrincipal()).getClaim("preferred_username");
-
-        // Admins can delete any user
-        if (auth.getAuthorities().stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN))) {
-            userService.deleteUser(id);
+    public ResponseEntity<Void> deleteUser(@PathVariable Long id, AuthenticatedUser currentUser) {
+        if (userService.deleteUser(id, currentUser.getOwner())) {
             return ResponseEntity.noContent().build();  // 204 No Content
-        } else {
-            // Normal users can only delete themselves
-            Optional<User> user = userService.getUserById(id);
-            if (user.isPresent() && user.get().getUsername().equals(username)) {
-                userService.deleteUser(id);
-                return ResponseEntity.noContent().build();  // 204 No Content
-            }
         }
 
-        return ResponseEntity.status(HttpStatus.FORBIDDEN).build();  // Forbidden if user tries to delete another user
+        return notFoundOrForbidden(id);  // Forbidden if user tries to delete another user
+    }
+
+    /**
+     * Helper method to answer an owner-scoped operation that matched no user.
+     * Only this failure path pays for the extra existence check.
+     *
+     * @param id The ID of the user.
+     * @return HTTP status FORBIDDEN if the user exists but is another user's account, otherwise NOT_FOUND.
+     */
+    private <T> ResponseEntity<T> notFoundOrForbidden(Long id) {
+        if (userService.userExists(id)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
     }
 }
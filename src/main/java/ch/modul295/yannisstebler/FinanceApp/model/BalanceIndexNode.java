@@ -0,0 +1,42 @@
+package ch.modul295.yannisstebler.financeapp.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One node of a user's Fenwick tree (binary indexed tree) over the daily net amounts of their transactions.
+ * Node i holds the sum of the days (i - lowbit(i), i], see BalanceService.
+ */
+@Data
+@Entity
+@Table(name = "balance_index")
+@IdClass(BalanceIndexNode.Key.class)
+public class BalanceIndexNode {
+    @Id
+    @Column(name = "keycloak_username", nullable = false)
+    String keycloak_username;
+
+    @Id
+    @Column(nullable = false)
+    Integer node;
+
+    @Column(nullable = false)
+    BigDecimal amount;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        String keycloak_username;
+        Integer node;
+    }
+}
@@ -2,18 +2,28 @@ package ch.modul295.yannisstebler.financeapp.model;
 
 import java.math.BigDecimal;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.Data;
 
 @Data
 @Entity
+@DynamicUpdate
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "budgets")
 public class Budget {
     @Id
@@ -23,10 +33,16 @@ public class Budget {
     @Column(name = "keycloak_username", nullable = false)
     String keycloak_username;
 
-    @ManyToOne
+    // Loaded with the budget only by the BudgetRepository reads that declare it in their entity graph
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "category")
     Category category;
 
     @Column(nullable = false)
     BigDecimal limit_amount;
+
+    // Optimistic locking, also incremented by the single-statement updates of BudgetRepository
+    @Version
+    @Column(nullable = false)
+    Long version;
 }
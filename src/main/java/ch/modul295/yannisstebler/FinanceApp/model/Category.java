@@ -1,15 +1,24 @@
 package ch.modul295.yannisstebler.financeapp.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.Data;
 
 @Data
 @Entity
+@DynamicUpdate
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE) // Second-level cache, sized in hibernate-cache.conf
 @Table(name = "catergories")
 public class Category {
     @Id
@@ -24,4 +33,9 @@ public class Category {
 
     @Column
     String description;
+
+    // Optimistic locking, also incremented by the single-statement updates of CategoryRepository
+    @Version
+    @Column(nullable = false)
+    Long version;
 }
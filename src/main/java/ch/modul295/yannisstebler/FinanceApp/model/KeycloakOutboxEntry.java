@@ -0,0 +1,57 @@
+package ch.modul295.yannisstebler.financeapp.model;
+
+import java.util.Date;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+/**
+ * A pending change of a Keycloak account, written in the same database transaction as the user change
+ * and pushed to Keycloak by the KeycloakOutboxDispatcher. Entries are deleted once they are done.
+ */
+@Data
+@Entity
+@Table(name = "keycloak_outbox")
+public class KeycloakOutboxEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    Long id;
+
+    @Column(nullable = false)
+    Long user_id;
+
+    @Column(nullable = false)
+    String username;
+
+    @Column(nullable = false)
+    Operation operation;
+
+    @Column(nullable = false)
+    Status status;
+
+    @Column(nullable = false)
+    int attempts;
+
+    // Also pushed into the future while a dispatcher works on the entry, so no other one picks it up
+    @Column(nullable = false)
+    Date next_attempt_at;
+
+    @Column(length = 1000)
+    String last_error;
+
+    @Column(nullable = false)
+    Date created_at;
+
+    public enum Operation {
+        CREATE, DELETE
+    }
+
+    public enum Status {
+        PENDING, FAILED
+    }
+}
@@ -0,0 +1,58 @@
+package ch.modul295.yannisstebler.financeapp.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Sum and number of a user's transactions per category, month and type.
+ * Maintained by the transaction writes (see SpendRollupService), never edited directly.
+ */
+@Data
+@Entity
+@Table(name = "spend_rollups")
+@IdClass(SpendRollup.Key.class)
+public class SpendRollup {
+    @Id
+    @Column(name = "keycloak_username", nullable = false)
+    String keycloak_username;
+
+    // First day of the month
+    @Id
+    @Column(nullable = false)
+    LocalDate period_start;
+
+    // 0 for transactions without a category
+    @Id
+    @Column(nullable = false)
+    Long category_id;
+
+    @Id
+    @Column(nullable = false)
+    Transaction.Type type;
+
+    @Column(nullable = false)
+    BigDecimal total;
+
+    @Column(nullable = false)
+    long transaction_count;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        String keycloak_username;
+        LocalDate period_start;
+        Long category_id;
+        Transaction.Type type;
+    }
+}
@@ -3,28 +3,38 @@ package ch.modul295.yannisstebler.financeapp.model;
 import java.math.BigDecimal;
 import java.util.Date;
 
+import org.hibernate.annotations.DynamicUpdate;
+
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.Data;
 
 @Data
 @Entity
+// UPDATE statements only set the changed columns
+@DynamicUpdate
 @Table(name = "transactions")
 public class Transaction {
+    // Pooled sequence instead of IDENTITY so that Hibernate can batch inserts
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "transactions_id_seq")
+    @SequenceGenerator(name = "transactions_id_seq", sequenceName = "transactions_id_seq", allocationSize = 50)
     Long id;
 
     @Column(name = "keycloak_username", nullable = false)
     String keycloak_username;
 
-    @ManyToOne
+    // Fetched explicitly by the queries that need it (see the repository's @EntityGraph methods)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "category")
     Category category;
 
@@ -37,6 +47,11 @@ public class Transaction {
     @Column(nullable = false)
     Date date;
 
+    // Optimistic locking: every update checks and increments it, so concurrent changes fail instead of overwriting each other
+    @Version
+    @Column(nullable = false)
+    Long version;
+
     public enum Type {
         INCOME, EXPENSE
     }
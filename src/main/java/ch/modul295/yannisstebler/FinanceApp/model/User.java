@@ -1,5 +1,9 @@
 package ch.modul295.yannisstebler.financeapp.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
@@ -14,6 +18,8 @@ import lombok.Data;
 
 @Data
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "users")
 public class User {
 
@@ -36,8 +42,8 @@ public class User {
     @Column(nullable = false)
     String password;
 
-    @NotBlank(message = "Keycloak ID cannot be empty")
-    @Column(nullable = false)
+    // Set once the account has been created in Keycloak (see KeycloakOutboxDispatcher)
+    @Column
     String keycloakID;
 
     @Email(message = "Email should be valid")
@@ -47,10 +53,21 @@ public class User {
     @Column(nullable = false)
     Boolean active;
 
+    @Column(nullable = false)
+    ProvisioningState provisioningState;
+
     @PrePersist
     public void setDefaults() {
         if (this.active == null) {
             this.active = true;
         }
+        if (this.provisioningState == null) {
+            this.provisioningState = ProvisioningState.PENDING;
+        }
+    }
+
+    // State of the Keycloak account, which is created and deleted asynchronously
+    public enum ProvisioningState {
+        PENDING, ACTIVE, FAILED, DELETING, DELETED
     }
 }
\ No newline at end of file
@@ -0,0 +1,20 @@
+package ch.modul295.yannisstebler.financeapp.model.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class BalanceDTO {
+
+    String keycloak_username;
+
+    // Inclusive, the balance contains every transaction up to the end of this day
+    LocalDate at;
+
+    // Incomes minus expenses
+    BigDecimal balance;
+}
@@ -0,0 +1,32 @@
+package ch.modul295.yannisstebler.financeapp.model.dto;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A budget whose category's expenses reached a threshold (see BudgetAlertService).
+ * Published as an application event and sent to the change streams.
+ */
+@Data
+@AllArgsConstructor
+public class BudgetAlertDTO {
+
+    Long budget_id;
+
+    String keycloak_username;
+
+    Long category_id;
+
+    YearMonth month;
+
+    // Percent of the limit, one of financeapp.budget-alerts.thresholds
+    int threshold;
+
+    BigDecimal limit_amount;
+
+    // Expenses in the category during the month, including the write that reached the threshold
+    BigDecimal spent;
+}
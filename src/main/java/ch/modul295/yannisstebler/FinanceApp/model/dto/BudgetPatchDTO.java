@@ -0,0 +1,19 @@
+package ch.modul295.yannisstebler.financeapp.model.dto;
+
+import java.math.BigDecimal;
+
+import lombok.Data;
+
+/**
+ * Fields to change in PATCH /api/budgets/{id}; missing or null fields keep their value.
+ */
+@Data
+public class BudgetPatchDTO {
+
+    Long category_id;
+
+    BigDecimal limit_amount;
+
+    // Optional: the change is only applied if the budget still has this version
+    Long version;
+}
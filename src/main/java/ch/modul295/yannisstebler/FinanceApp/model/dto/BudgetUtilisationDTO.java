@@ -0,0 +1,35 @@
+package ch.modul295.yannisstebler.financeapp.model.dto;
+
+import java.math.BigDecimal;
+
+import lombok.Data;
+
+@Data
+public class BudgetUtilisationDTO {
+
+    Long budget_id;
+
+    String keycloak_username;
+
+    Long category_id;
+
+    String category_name;
+
+    BigDecimal limit_amount;
+
+    // Expenses in the category during the requested month
+    BigDecimal spent;
+
+    BigDecimal remaining;
+
+    public BudgetUtilisationDTO(Long budget_id, String keycloak_username, Long category_id, String category_name,
+            BigDecimal limit_amount, BigDecimal spent) {
+        this.budget_id = budget_id;
+        this.keycloak_username = keycloak_username;
+        this.category_id = category_id;
+        this.category_name = category_name;
+        this.limit_amount = limit_amount;
+        this.spent = spent == null ? BigDecimal.ZERO : spent;
+        this.remaining = limit_amount.subtract(this.spent);
+    }
+}
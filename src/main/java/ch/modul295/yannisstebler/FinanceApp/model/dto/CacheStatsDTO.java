@@ -0,0 +1,21 @@
+package ch.modul295.yannisstebler.financeapp.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class CacheStatsDTO {
+
+    // Approximate number of entries
+    long size;
+
+    long hitCount;
+
+    long missCount;
+
+    double hitRate;
+
+    // Entries removed because of the size limit or the TTL, not by invalidation
+    long evictionCount;
+}
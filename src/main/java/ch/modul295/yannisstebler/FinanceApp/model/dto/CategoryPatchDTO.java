@@ -0,0 +1,17 @@
+package ch.modul295.yannisstebler.financeapp.model.dto;
+
+import lombok.Data;
+
+/**
+ * Fields to change in PATCH /api/categories/{id}; missing or null fields keep their value.
+ */
+@Data
+public class CategoryPatchDTO {
+
+    String name;
+
+    String description;
+
+    // Optional: the change is only applied if the category still has this version
+    Long version;
+}
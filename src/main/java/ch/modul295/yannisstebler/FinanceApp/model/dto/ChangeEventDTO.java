@@ -0,0 +1,15 @@
+package ch.modul295.yannisstebler.financeapp.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class ChangeEventDTO {
+
+    // transactions, budgets or categories
+    String resource;
+
+    // Current ETag of the list endpoint of the resource, as sent with its response
+    String etag;
+}
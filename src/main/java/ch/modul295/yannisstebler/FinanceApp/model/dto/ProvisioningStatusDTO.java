@@ -0,0 +1,19 @@
+package ch.modul295.yannisstebler.financeapp.model.dto;
+
+import ch.modul295.yannisstebler.financeapp.model.User;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class ProvisioningStatusDTO {
+
+    Long user_id;
+
+    User.ProvisioningState state;
+
+    // Failed attempts of the pending or failed Keycloak change, 0 if none is left
+    int attempts;
+
+    String last_error;
+}
@@ -0,0 +1,27 @@
+package ch.modul295.yannisstebler.financeapp.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Outcome of one item of a batch import.
+ */
+@Data
+@AllArgsConstructor
+public class TransactionBatchResultDTO {
+
+    // Position of the item in the request
+    int index;
+
+    Status status;
+
+    // ID of the created transaction, null if rejected
+    Long id;
+
+    // Reason for the rejection, null if created
+    String error;
+
+    public enum Status {
+        CREATED, REJECTED
+    }
+}
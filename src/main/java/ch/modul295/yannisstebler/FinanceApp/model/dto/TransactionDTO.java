@@ -1,6 +1,7 @@
 package ch.modul295.yannisstebler.financeapp.model.dto;
 
 import java.math.BigDecimal;
+import java.util.Date;
 
 import lombok.Data;
 
@@ -15,6 +16,9 @@ public class TransactionDTO {
 
     Type type;
 
+    // Optional, e.g. for transactions recorded offline; defaults to the time of creation
+    Date date;
+
     public enum Type {
         INCOME, EXPENSE
     }
@@ -0,0 +1,30 @@
+package ch.modul295.yannisstebler.financeapp.model.dto;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Flat, unmanaged row of a transaction export, selected directly by a JPQL constructor expression.
+ */
+@Data
+@AllArgsConstructor
+public class TransactionExportDTO {
+
+    Long id;
+
+    String keycloak_username;
+
+    Date date;
+
+    Transaction.Type type;
+
+    BigDecimal amount;
+
+    Long category_id;
+
+    String category_name;
+}
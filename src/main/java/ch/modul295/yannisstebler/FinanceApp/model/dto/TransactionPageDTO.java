@@ -0,0 +1,17 @@
+package ch.modul295.yannisstebler.financeapp.model.dto;
+
+import java.util.List;
+
+import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class TransactionPageDTO {
+
+    List<Transaction> items;
+
+    // Cursor for the next page ("<epochMillis>,<id>"), null on the last page
+    String next;
+}
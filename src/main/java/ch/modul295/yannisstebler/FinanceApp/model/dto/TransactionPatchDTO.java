@@ -0,0 +1,24 @@
+package ch.modul295.yannisstebler.financeapp.model.dto;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import lombok.Data;
+
+/**
+ * Fields to change in PATCH /api/transactions/{id}; missing or null fields keep their value.
+ */
+@Data
+public class TransactionPatchDTO {
+
+    Long category_id;
+
+    BigDecimal amount;
+
+    TransactionDTO.Type type;
+
+    Date date;
+
+    // Optional: the change is only applied if the transaction still has this version
+    Long version;
+}
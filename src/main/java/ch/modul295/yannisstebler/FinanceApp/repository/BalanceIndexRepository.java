@@ -0,0 +1,85 @@
+package ch.modul295.yannisstebler.financeapp.repository;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import ch.modul295.yannisstebler.financeapp.model.BalanceIndexNode;
+import jakarta.persistence.QueryHint;
+
+
+@Repository
+public interface BalanceIndexRepository extends JpaRepository<BalanceIndexNode, BalanceIndexNode.Key>, BalanceIndexRepositoryCustom {
+
+    /**
+     * Sums the given nodes of a user's tree.
+     */
+    @Query("SELECT COALESCE(SUM(n.amount), 0) FROM BalanceIndexNode n WHERE n.keycloak_username = :owner AND n.node IN :nodes")
+    BigDecimal sumNodes(@Param("owner") String owner, @Param("nodes") Collection<Integer> nodes);
+
+    /**
+     * Deletes all nodes.
+     */
+    @Transactional
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "balance_index"))
+    @Query(value = "DELETE FROM balance_index", nativeQuery = true)
+    int deleteAllNodes();
+
+    /**
+     * Deletes the nodes of one user.
+     */
+    @Transactional
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "balance_index"))
+    @Query(value = "DELETE FROM balance_index WHERE keycloak_username = :owner", nativeQuery = true)
+    int deleteNodesByOwner(@Param("owner") String owner);
+
+    /**
+     * Recomputes all trees from the transactions in one statement (PostgreSQL only).
+     * Every daily net amount is propagated to the nodes covering its day (i, i + lowbit(i), ...) and summed per node.
+     * The day numbering and bounds must match BalanceService.
+     *
+     * @return the number of inserted nodes
+     */
+    @Transactional
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "balance_index"))
+    @Query(value = "WITH RECURSIVE daily AS ("
+            + "SELECT keycloak_username, GREATEST(1, LEAST(131072, (date::date - DATE '1900-01-01') + 1)) AS node,"
+            + " sum(CASE WHEN type = 0 THEN amount ELSE -amount END) AS amount"
+            + " FROM transactions GROUP BY 1, 2),"
+            + " nodes AS (SELECT keycloak_username, node, amount FROM daily"
+            + " UNION ALL SELECT keycloak_username, node + (node & -node), amount FROM nodes WHERE node + (node & -node) <= 131072)"
+            + " INSERT INTO balance_index (keycloak_username, node, amount)"
+            + " SELECT keycloak_username, node, sum(amount) FROM nodes GROUP BY 1, 2",
+            nativeQuery = true)
+    int insertNodesFromTransactions();
+
+    /**
+     * Recomputes the tree of one user from their transactions in one statement (PostgreSQL only).
+     *
+     * @return the number of inserted nodes
+     */
+    @Transactional
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "balance_index"))
+    @Query(value = "WITH RECURSIVE daily AS ("
+            + "SELECT keycloak_username, GREATEST(1, LEAST(131072, (date::date - DATE '1900-01-01') + 1)) AS node,"
+            + " sum(CASE WHEN type = 0 THEN amount ELSE -amount END) AS amount"
+            + " FROM transactions WHERE keycloak_username = :owner GROUP BY 1, 2),"
+            + " nodes AS (SELECT keycloak_username, node, amount FROM daily"
+            + " UNION ALL SELECT keycloak_username, node + (node & -node), amount FROM nodes WHERE node + (node & -node) <= 131072)"
+            + " INSERT INTO balance_index (keycloak_username, node, amount)"
+            + " SELECT keycloak_username, node, sum(amount) FROM nodes GROUP BY 1, 2",
+            nativeQuery = true)
+    int insertNodesFromTransactionsByOwner(@Param("owner") String owner);
+}
@@ -0,0 +1,19 @@
+package ch.modul295.yannisstebler.financeapp.repository;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Batched writes of the balance index, sent through JDBC (see BalanceIndexRepositoryCustomImpl).
+ */
+public interface BalanceIndexRepositoryCustom {
+
+    /**
+     * Adds amounts to nodes, creating the nodes that do not exist yet, with one JDBC batch of inserts and one of updates.
+     * The nodes are written in the iteration order of the maps, which must be ascending, so concurrent writers lock
+     * them in the same order.
+     *
+     * @param deltas the amount to add per node, per username
+     */
+    void addToNodes(Map<String, Map<Integer, BigDecimal>> deltas);
+}
@@ -0,0 +1,50 @@
+package ch.modul295.yannisstebler.financeapp.repository;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * JDBC implementation of the batched balance index writes.
+ * The nodes are not cached by Hibernate, so writing them past it leaves no cache stale.
+ */
+public class BalanceIndexRepositoryCustomImpl implements BalanceIndexRepositoryCustom {
+
+    // Creates missing nodes empty; an insert racing another one for the same node waits for it and does nothing
+    private static final String INSERT_NODE = "INSERT INTO balance_index (keycloak_username, node, amount) VALUES (?, ?, 0)"
+            + " ON CONFLICT DO NOTHING";
+
+    private static final String UPDATE_NODE = "UPDATE balance_index SET amount = amount + ? WHERE keycloak_username = ? AND node = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Adds amounts to nodes: first creates the missing nodes, then increments all of them, so no increment can get lost.
+     * Uses only SQL that PostgreSQL and H2 (load tests) both understand; with reWriteBatchedInserts, the
+     * PostgreSQL driver may merge the inserts into multi-row statements.
+     *
+     * @param deltas the amount to add per node, per username, in ascending order
+     */
+    @Override
+    @Transactional
+    public void addToNodes(Map<String, Map<Integer, BigDecimal>> deltas) {
+        List<Object[]> keys = new ArrayList<>();
+        List<Object[]> increments = new ArrayList<>();
+        deltas.forEach((owner, nodes) -> nodes.forEach((node, amount) -> {
+            keys.add(new Object[] {owner, node});
+            increments.add(new Object[] {amount, owner, node});
+        }));
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_NODE, keys);
+        jdbcTemplate.batchUpdate(UPDATE_NODE, increments);
+    }
+}
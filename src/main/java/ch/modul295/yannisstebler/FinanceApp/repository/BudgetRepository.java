@@ -1,12 +1,73 @@
 package ch.modul295.yannisstebler.financeapp.repository;
 
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import ch.modul295.yannisstebler.financeapp.model.Budget;
+import ch.modul295.yannisstebler.financeapp.model.Category;
+import jakarta.persistence.QueryHint;
 
 
 @Repository
 public interface BudgetRepository extends JpaRepository<Budget, Long> {
-    
+
+    /**
+     * Finds all budgets together with their categories in a single query.
+     * The result is kept in the query cache until a budget or category changes.
+     */
+    @Override
+    @EntityGraph(attributePaths = "category")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    List<Budget> findAll();
+
+    /**
+     * Finds a budget by id if it belongs to the owner. A null owner matches any owner (admins).
+     * The result is kept in the query cache until a budget or category changes.
+     */
+    @EntityGraph(attributePaths = "category")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    @Query("SELECT b FROM Budget b WHERE b.id = :id AND (:owner IS NULL OR b.keycloak_username = :owner)")
+    Optional<Budget> findByIdAndOwner(@Param("id") Long id, @Param("owner") String owner);
+
+    /**
+     * Finds the budgets of an owner together with their categories. A null owner matches any owner (admins).
+     * The result is kept in the query cache until a budget or category changes.
+     */
+    @EntityGraph(attributePaths = "category")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    @Query("SELECT b FROM Budget b WHERE :owner IS NULL OR b.keycloak_username = :owner")
+    List<Budget> findAllByOwner(@Param("owner") String owner);
+
+    /**
+     * Deletes a budget in a single statement if it belongs to the owner. A null owner matches any owner (admins).
+     *
+     * @return the number of deleted rows (0 or 1)
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM Budget b WHERE b.id = :id AND (:owner IS NULL OR b.keycloak_username = :owner)")
+    int deleteByIdAndOwner(@Param("id") Long id, @Param("owner") String owner);
+
+    /**
+     * Updates a budget in a single statement if it belongs to the owner. A null owner matches any owner (admins).
+     *
+     * @return the number of updated rows (0 or 1)
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Budget b SET b.category = :category, b.limit_amount = :limitAmount, b.version = b.version + 1"
+            + " WHERE b.id = :id AND (:owner IS NULL OR b.keycloak_username = :owner)")
+    int updateByIdAndOwner(@Param("id") Long id, @Param("owner") String owner, @Param("category") Category category,
+            @Param("limitAmount") BigDecimal limitAmount);
 }
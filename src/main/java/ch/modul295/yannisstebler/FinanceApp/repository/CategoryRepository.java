@@ -1,12 +1,66 @@
 package ch.modul295.yannisstebler.financeapp.repository;
 
+import java.util.List;
+import java.util.Optional;
+
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import ch.modul295.yannisstebler.financeapp.model.Category;
+import jakarta.persistence.QueryHint;
 
 
 @Repository
 public interface CategoryRepository extends JpaRepository<Category, Long> {
-    
+
+    /**
+     * Finds all categories. The result is kept in the query cache until a category changes.
+     */
+    @Override
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    List<Category> findAll();
+
+    /**
+     * Finds the categories of an owner. A null owner matches any owner (admins).
+     * The result is kept in the query cache until a category changes.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    @Query("SELECT c FROM Category c WHERE :owner IS NULL OR c.keycloak_username = :owner")
+    List<Category> findAllByOwner(@Param("owner") String owner);
+
+    /**
+     * Finds a category by id if it belongs to the owner. A null owner matches any owner (admins).
+     * The result is kept in the query cache until a category changes.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    @Query("SELECT c FROM Category c WHERE c.id = :id AND (:owner IS NULL OR c.keycloak_username = :owner)")
+    Optional<Category> findByIdAndOwner(@Param("id") Long id, @Param("owner") String owner);
+
+    /**
+     * Deletes a category in a single statement if it belongs to the owner. A null owner matches any owner (admins).
+     *
+     * @return the number of deleted rows (0 or 1)
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM Category c WHERE c.id = :id AND (:owner IS NULL OR c.keycloak_username = :owner)")
+    int deleteByIdAndOwner(@Param("id") Long id, @Param("owner") String owner);
+
+    /**
+     * Updates a category in a single statement if it belongs to the owner. A null owner matches any owner (admins).
+     *
+     * @return the number of updated rows (0 or 1)
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Category c SET c.name = :name, c.description = :description, c.version = c.version + 1"
+            + " WHERE c.id = :id AND (:owner IS NULL OR c.keycloak_username = :owner)")
+    int updateByIdAndOwner(@Param("id") Long id, @Param("owner") String owner, @Param("name") String name,
+            @Param("description") String description);
 }
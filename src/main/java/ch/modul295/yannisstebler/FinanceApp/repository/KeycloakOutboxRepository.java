@@ -0,0 +1,34 @@
+package ch.modul295.yannisstebler.financeapp.repository;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import ch.modul295.yannisstebler.financeapp.model.KeycloakOutboxEntry;
+
+
+@Repository
+public interface KeycloakOutboxRepository extends JpaRepository<KeycloakOutboxEntry, Long> {
+
+    /**
+     * Finds and locks the pending entries that are due, oldest first (PostgreSQL only).
+     * An entry is only due once the older pending entries of the same user are done, so a user's changes are applied in order.
+     * Rows locked by another dispatcher are skipped instead of waited for.
+     */
+    @Query(value = "SELECT * FROM keycloak_outbox o WHERE o.status = 0 AND o.next_attempt_at <= :now"
+            + " AND NOT EXISTS (SELECT 1 FROM keycloak_outbox p WHERE p.user_id = o.user_id AND p.status = 0 AND p.id < o.id)"
+            + " ORDER BY o.id LIMIT :limit FOR UPDATE SKIP LOCKED",
+            nativeQuery = true)
+    List<KeycloakOutboxEntry> findDueForUpdate(@Param("now") Date now, @Param("limit") int limit);
+
+    /**
+     * Finds the newest entry of a user.
+     */
+    @Query("SELECT o FROM KeycloakOutboxEntry o WHERE o.user_id = :userId ORDER BY o.id DESC LIMIT 1")
+    Optional<KeycloakOutboxEntry> findLatestByUserId(@Param("userId") Long userId);
+}
@@ -0,0 +1,98 @@
+package ch.modul295.yannisstebler.financeapp.repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import ch.modul295.yannisstebler.financeapp.model.SpendRollup;
+import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import ch.modul295.yannisstebler.financeapp.model.dto.BudgetUtilisationDTO;
+import jakarta.persistence.QueryHint;
+
+
+@Repository
+public interface SpendRollupRepository extends JpaRepository<SpendRollup, SpendRollup.Key>, SpendRollupRepositoryCustom {
+
+    /**
+     * Finds the rollup rows of a month, ordered by category and type. A null owner matches any owner (admins).
+     */
+    @Query("SELECT r FROM SpendRollup r WHERE r.period_start = :periodStart AND (:owner IS NULL OR r.keycloak_username = :owner)"
+            + " ORDER BY r.keycloak_username, r.category_id, r.type")
+    List<SpendRollup> findByOwnerAndPeriod(@Param("owner") String owner, @Param("periodStart") LocalDate periodStart);
+
+    /**
+     * Finds the rollup rows of one type from a month on, including later months. A null owner matches any owner.
+     */
+    @Query("SELECT r FROM SpendRollup r WHERE r.type = :type AND r.period_start >= :periodStart"
+            + " AND (:owner IS NULL OR r.keycloak_username = :owner)")
+    List<SpendRollup> findByOwnerAndTypeSince(@Param("owner") String owner, @Param("type") Transaction.Type type,
+            @Param("periodStart") LocalDate periodStart);
+
+    /**
+     * Joins the budgets with the expense rollup of their category for one month,
+     * so the cost depends on the number of budgets and not on the number of transactions.
+     * A null owner matches any owner (admins).
+     */
+    @Query("SELECT new ch.modul295.yannisstebler.financeapp.model.dto.BudgetUtilisationDTO("
+            + "b.id, b.keycloak_username, c.id, c.name, b.limit_amount, r.total)"
+            + " FROM Budget b LEFT JOIN b.category c"
+            + " LEFT JOIN SpendRollup r ON r.keycloak_username = b.keycloak_username AND r.category_id = c.id"
+            + " AND r.period_start = :periodStart AND r.type = ch.modul295.yannisstebler.financeapp.model.Transaction.Type.EXPENSE"
+            + " WHERE :owner IS NULL OR b.keycloak_username = :owner"
+            + " ORDER BY b.keycloak_username, b.id")
+    List<BudgetUtilisationDTO> findBudgetUtilisation(@Param("owner") String owner, @Param("periodStart") LocalDate periodStart);
+
+    /**
+     * Deletes all rollup rows.
+     */
+    @Transactional
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "spend_rollups"))
+    @Query(value = "DELETE FROM spend_rollups", nativeQuery = true)
+    int deleteAllRollups();
+
+    /**
+     * Deletes the rollup rows of one user.
+     */
+    @Transactional
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "spend_rollups"))
+    @Query(value = "DELETE FROM spend_rollups WHERE keycloak_username = :owner", nativeQuery = true)
+    int deleteRollupsByOwner(@Param("owner") String owner);
+
+    /**
+     * Recomputes all rollup rows from the transactions in one aggregate statement (PostgreSQL only).
+     *
+     * @return the number of inserted rows
+     */
+    @Transactional
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "spend_rollups"))
+    @Query(value = "INSERT INTO spend_rollups (keycloak_username, period_start, category_id, type, total, transaction_count)"
+            + " SELECT keycloak_username, date_trunc('month', date)::date, COALESCE(category, 0), type, sum(amount), count(*)"
+            + " FROM transactions GROUP BY 1, 2, 3, 4",
+            nativeQuery = true)
+    int insertRollupsFromTransactions();
+
+    /**
+     * Recomputes the rollup rows of one user from their transactions in one aggregate statement (PostgreSQL only).
+     *
+     * @return the number of inserted rows
+     */
+    @Transactional
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "spend_rollups"))
+    @Query(value = "INSERT INTO spend_rollups (keycloak_username, period_start, category_id, type, total, transaction_count)"
+            + " SELECT keycloak_username, date_trunc('month', date)::date, COALESCE(category, 0), type, sum(amount), count(*)"
+            + " FROM transactions WHERE keycloak_username = :owner GROUP BY 1, 2, 3, 4",
+            nativeQuery = true)
+    int insertRollupsFromTransactionsByOwner(@Param("owner") String owner);
+}
@@ -0,0 +1,22 @@
+package ch.modul295.yannisstebler.financeapp.repository;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import ch.modul295.yannisstebler.financeapp.model.SpendRollup;
+
+/**
+ * Batched writes of the spend rollups, sent through JDBC (see SpendRollupRepositoryCustomImpl).
+ */
+public interface SpendRollupRepositoryCustom {
+
+    /**
+     * Adds amounts and numbers of transactions to rollup rows, creating the rows that do not exist yet, with one JDBC
+     * batch of inserts and one of updates. The rows are written in the iteration order of the totals, which must be
+     * the primary key order, so concurrent writers lock them in the same order.
+     *
+     * @param totals the amount to add per row
+     * @param counts the number of transactions to add per row, for the same keys
+     */
+    void addToRollups(Map<SpendRollup.Key, BigDecimal> totals, Map<SpendRollup.Key, Long> counts);
+}
@@ -1,12 +1,105 @@
 package ch.modul295.yannisstebler.financeapp.repository;
 
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.hibernate.jpa.HibernateHints;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import ch.modul295.yannisstebler.financeapp.model.dto.TransactionExportDTO;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
 
 
 @Repository
 public interface TransactionRepository extends JpaRepository<Transaction, Long> {
-    
+
+    /**
+     * First page of a user's transactions, newest first.
+     */
+    @EntityGraph(attributePaths = "category")
+    @Query("SELECT t FROM Transaction t WHERE t.keycloak_username = :owner ORDER BY t.date DESC, t.id DESC")
+    List<Transaction> findPageByOwner(@Param("owner") String owner, Limit limit);
+
+    /**
+     * Next page of a user's transactions, strictly after the (date, id) cursor.
+     */
+    @EntityGraph(attributePaths = "category")
+    @Query("SELECT t FROM Transaction t WHERE t.keycloak_username = :owner"
+            + " AND (t.date < :date OR (t.date = :date AND t.id < :id))"
+            + " ORDER BY t.date DESC, t.id DESC")
+    List<Transaction> findPageByOwnerAfter(@Param("owner") String owner, @Param("date") Date date, @Param("id") Long id, Limit limit);
+
+    /**
+     * First page of all transactions, newest first (admin view).
+     */
+    @EntityGraph(attributePaths = "category")
+    @Query("SELECT t FROM Transaction t ORDER BY t.date DESC, t.id DESC")
+    List<Transaction> findPage(Limit limit);
+
+    /**
+     * Next page of all transactions, strictly after the (date, id) cursor (admin view).
+     */
+    @EntityGraph(attributePaths = "category")
+    @Query("SELECT t FROM Transaction t"
+            + " WHERE t.date < :date OR (t.date = :date AND t.id < :id)"
+            + " ORDER BY t.date DESC, t.id DESC")
+    List<Transaction> findPageAfter(@Param("date") Date date, @Param("id") Long id, Limit limit);
+
+    /**
+     * Finds a transaction by id if it belongs to the owner. A null owner matches any owner (admins).
+     */
+    @EntityGraph(attributePaths = "category")
+    @Query("SELECT t FROM Transaction t WHERE t.id = :id AND (:owner IS NULL OR t.keycloak_username = :owner)")
+    Optional<Transaction> findByIdAndOwner(@Param("id") Long id, @Param("owner") String owner);
+
+    /**
+     * Finds a transaction by id if it belongs to the owner and locks its row until the end of the transaction.
+     * Used by updates and deletes, which need the old values to correct the spend rollups.
+     * A null owner matches any owner (admins). The category is not fetched, so only the transaction row is locked.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT t FROM Transaction t WHERE t.id = :id AND (:owner IS NULL OR t.keycloak_username = :owner)")
+    Optional<Transaction> findByIdAndOwnerForUpdate(@Param("id") Long id, @Param("owner") String owner);
+
+    /**
+     * Streams a user's transactions in [from, to) as flat export rows, oldest first.
+     * Must be consumed inside a transaction; the fetch size makes the driver use a forward-only server-side cursor.
+     */
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new ch.modul295.yannisstebler.financeapp.model.dto.TransactionExportDTO("
+            + "t.id, t.keycloak_username, t.date, t.type, t.amount, c.id, c.name)"
+            + " FROM Transaction t LEFT JOIN t.category c"
+            + " WHERE t.keycloak_username = :owner AND t.date >= :from AND t.date < :to"
+            + " ORDER BY t.date, t.id")
+    Stream<TransactionExportDTO> streamExportByOwner(@Param("owner") String owner, @Param("from") Date from, @Param("to") Date to);
+
+    /**
+     * Streams all transactions in [from, to) as flat export rows, oldest first (admin full-table extracts).
+     * Must be consumed inside a transaction; the fetch size makes the driver use a forward-only server-side cursor.
+     */
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new ch.modul295.yannisstebler.financeapp.model.dto.TransactionExportDTO("
+            + "t.id, t.keycloak_username, t.date, t.type, t.amount, c.id, c.name)"
+            + " FROM Transaction t LEFT JOIN t.category c"
+            + " WHERE t.date >= :from AND t.date < :to"
+            + " ORDER BY t.date, t.id")
+    Stream<TransactionExportDTO> streamExport(@Param("from") Date from, @Param("to") Date to);
 }
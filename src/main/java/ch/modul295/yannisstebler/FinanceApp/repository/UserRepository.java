@@ -1,12 +1,34 @@
 package ch.modul295.yannisstebler.financeapp.repository;
 
+import java.util.List;
+import java.util.Optional;
+
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import ch.modul295.yannisstebler.financeapp.model.User;
+import jakarta.persistence.QueryHint;
 
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
-    
+
+    /**
+     * Finds all users. The result is kept in the query cache until a user changes.
+     */
+    @Override
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    List<User> findAll();
+
+    /**
+     * Finds a user by id if it is the owner's own account. A null owner matches any account (admins).
+     * The result is kept in the query cache until a user changes.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    @Query("SELECT u FROM User u WHERE u.id = :id AND (:owner IS NULL OR u.username = :owner)")
+    Optional<User> findByIdAndOwner(@Param("id") Long id, @Param("owner") String owner);
 }
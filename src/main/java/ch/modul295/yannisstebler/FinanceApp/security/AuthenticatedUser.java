@@ -0,0 +1,25 @@
+package ch.modul295.yannisstebler.financeapp.security;
+
+import lombok.Value;
+
+/**
+ * The authenticated caller as controllers need it, computed once per token by AuthenticationRoleConverter.
+ * Declare it as a controller method parameter to receive it (see AuthenticatedUserArgumentResolver).
+ */
+@Value
+public class AuthenticatedUser {
+
+    // preferred_username claim of the token
+    String username;
+
+    boolean admin;
+
+    /**
+     * The owner scope of the user. Admins can access the data of every user, so their scope is null (any owner).
+     *
+     * @return null for admins, otherwise the username.
+     */
+    public String getOwner() {
+        return admin ? null : username;
+    }
+}
@@ -0,0 +1,24 @@
+package ch.modul295.yannisstebler.financeapp.security;
+
+import java.util.Collection;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+
+/**
+ * JwtAuthenticationToken that also carries the precomputed AuthenticatedUser.
+ */
+public class AuthenticatedUserToken extends JwtAuthenticationToken {
+
+    private final AuthenticatedUser user;
+
+    public AuthenticatedUserToken(Jwt jwt, Collection<? extends GrantedAuthority> authorities, AuthenticatedUser user) {
+        super(jwt, authorities);
+        this.user = user;
+    }
+
+    public AuthenticatedUser getUser() {
+        return user;
+    }
+}
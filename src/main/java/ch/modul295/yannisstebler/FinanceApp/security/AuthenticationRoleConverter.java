@@ -1,40 +1,70 @@
 package ch.modul295.yannisstebler.financeapp.security;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Set;
 
 import org.springframework.core.convert.converter.Converter;
 import org.springframework.security.authentication.AbstractAuthenticationToken;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.jwt.Jwt;
-import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
 public class AuthenticationRoleConverter implements Converter<Jwt, AbstractAuthenticationToken> {
 
+    // Tokens without an exp claim are converted again after this time
+    private static final Duration MAX_CACHE_TIME = Duration.ofMinutes(5);
+
     private final JwtGrantedAuthoritiesConverter defaultGrantedAuthoritiesConverter = new JwtGrantedAuthoritiesConverter();
     
     private final String appName;
 
+    // Converted authorities and user per token (jti, or the token itself if it has none), until the token expires
+    private final Cache<String, Conversion> conversions;
+
     // Constructor that initializes the appName (required for extracting roles specific to the app)
-    public AuthenticationRoleConverter(String appName) {
+    public AuthenticationRoleConverter(String appName, long cacheMaximumSize) {
         defaultGrantedAuthoritiesConverter.setAuthoritiesClaimName("roles");
         defaultGrantedAuthoritiesConverter.setAuthorityPrefix("ROLE_");
         this.appName = appName;
+        this.conversions = Caffeine.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfter(new Expiry<String, Conversion>() {
+                    @Override
+                    public long expireAfterCreate(String key, Conversion conversion, long currentTime) {
+                        return conversion.timeToLive().toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Conversion conversion, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Conversion conversion, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
     }
 
     /**
      * Extract roles for the application from the 'resource_access' claim in the JWT.
      * @param jwt The JWT token
-     * @return A collection of roles as GrantedAuthority
+     * @param authorities The set the roles are added to
      */
-    private Collection<? extends GrantedAuthority> extractResourceRoles(final Jwt jwt) {
+    private void extractResourceRoles(final Jwt jwt, final Set<GrantedAuthority> authorities) {
         Map<String, Object> resourceAccess = jwt.getClaim("resource_access");
-        Collection<String> resourceRoles;
         
         if (resourceAccess != null) {
             // Retrieve roles for the specific appName (application)
@@ -43,28 +73,57 @@ public class AuthenticationRoleConverter implements Converter<Jwt, AbstractAuthe
                 (Map<String, Collection<String>>) appObject : Collections.emptyMap();
             
             // Extract the roles for the application, if present
-            if ((resourceRoles = app.get("roles")) != null) {
-                return resourceRoles.stream()
-                        .map(SimpleGrantedAuthority::new)
-                        .collect(Collectors.toSet());
+            Collection<String> resourceRoles = app.get("roles");
+            if (resourceRoles != null) {
+                for (String role : resourceRoles) {
+                    authorities.add(new SimpleGrantedAuthority(role));
+                }
             }
         }
-        return Collections.emptySet();
     }
 
     /**
      * Convert the JWT into an AbstractAuthenticationToken by adding roles.
+     * The authorities and the AuthenticatedUser are computed once per token and then served from the cache.
+     * The signature of the token has already been verified at this point, so its jti can be trusted as key.
      * @param source The JWT token
-     * @return A JwtAuthenticationToken that contains the authorities
+     * @return An AuthenticatedUserToken that contains the authorities and the AuthenticatedUser
      */
     @Override
     public AbstractAuthenticationToken convert(final Jwt source) {
-        Collection<GrantedAuthority> authorities = Stream.concat(
-                defaultGrantedAuthoritiesConverter.convert(source).stream(), 
-                extractResourceRoles(source).stream() 
-        ).collect(Collectors.toSet()); 
+        String key = source.getId() != null ? source.getId() : source.getTokenValue();
+        Conversion conversion = conversions.get(key, k -> convertUncached(source));
         
-        // Return a JwtAuthenticationToken with the combined authorities
-        return new JwtAuthenticationToken(source, authorities);
+        // The token itself is created per request, Spring Security sets request specific details on it
+        return new AuthenticatedUserToken(source, conversion.authorities(), conversion.user());
+    }
+
+    /**
+     * Helper method to compute the authorities and the AuthenticatedUser of a token.
+     */
+    private Conversion convertUncached(final Jwt source) {
+        Set<GrantedAuthority> authorities = new HashSet<>(defaultGrantedAuthoritiesConverter.convert(source));
+        extractResourceRoles(source, authorities);
+
+        boolean admin = authorities.stream().anyMatch(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_" + Roles.ADMIN));
+        AuthenticatedUser user = new AuthenticatedUser(source.getClaimAsString("preferred_username"), admin);
+        return new Conversion(List.copyOf(authorities), user, source.getExpiresAt());
+    }
+
+    /**
+     * Cached result of a conversion.
+     */
+    private record Conversion(List<GrantedAuthority> authorities, AuthenticatedUser user, Instant expiresAt) {
+
+        /**
+         * Time until the token expires.
+         */
+        Duration timeToLive() {
+            if (expiresAt == null) {
+                return MAX_CACHE_TIME;
+            }
+            Duration ttl = Duration.between(Instant.now(), expiresAt);
+            return ttl.isNegative() ? Duration.ZERO : ttl;
+        }
     }
 }
@@ -0,0 +1,192 @@
+package ch.modul295.yannisstebler.financeapp.security;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+
+/**
+ * Source of the token signing keys that never blocks token validation on the network.
+ * Keys are served from memory. They are loaded from a local JWKS file at startup and refreshed in the background,
+ * from the JWKS URL of the identity provider (the file is rewritten after every successful fetch, so the next
+ * start works offline) or, without a URL, from the file itself.
+ * A token with an unknown kid is rejected right away and triggers one refresh, shared by all concurrent callers.
+ */
+public class CachedJwkSource implements JWKSource<SecurityContext>, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CachedJwkSource.class);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+    private static final int SIZE_LIMIT_BYTES = 512 * 1024;
+
+    private final Path jwksFile;
+
+    // null to only read the local file
+    private final URL jwksUrl;
+
+    private final Duration refreshInterval;
+
+    // Minimum time between two refreshes triggered by unknown kids
+    private final Duration unknownKidCooldown;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jwks-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile JWKSet jwkSet = new JWKSet();
+
+    // The refresh in progress, null if none
+    private final AtomicReference<CompletableFuture<JWKSet>> refreshing = new AtomicReference<>();
+
+    private volatile long lastUnknownKidRefresh = System.nanoTime() - Long.MAX_VALUE / 2;
+
+    public CachedJwkSource(Path jwksFile, URL jwksUrl, Duration refreshInterval, Duration unknownKidCooldown) {
+        this.jwksFile = jwksFile;
+        this.jwksUrl = jwksUrl;
+        this.refreshInterval = refreshInterval;
+        this.unknownKidCooldown = unknownKidCooldown;
+    }
+
+    /**
+     * Loads the local JWKS file and schedules the background refresh.
+     * Without a usable file the first refresh starts immediately, in the background.
+     */
+    public void start() {
+        boolean loaded = false;
+        if (Files.isReadable(jwksFile)) {
+            try {
+                jwkSet = JWKSet.parse(Files.readString(jwksFile, StandardCharsets.UTF_8));
+                loaded = true;
+                log.info("Loaded {} signing keys from {}", jwkSet.getKeys().size(), jwksFile);
+            } catch (IOException | ParseException e) {
+                log.warn("Could not read signing keys from {}", jwksFile, e);
+            }
+        }
+
+        long refreshMillis = refreshInterval.toMillis();
+        executor.scheduleWithFixedDelay(this::refresh, loaded ? refreshMillis : 0, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Selects the keys matching a token header from memory.
+     * If none matches, a refresh is started in the background (at most once per cooldown) and the token is rejected.
+     */
+    @Override
+    public List<JWK> get(JWKSelector jwkSelector, SecurityContext context) {
+        List<JWK> keys = jwkSelector.select(jwkSet);
+        if (keys.isEmpty()) {
+            long now = System.nanoTime();
+            long last = lastUnknownKidRefresh;
+            if (now - last >= unknownKidCooldown.toNanos()) {
+                lastUnknownKidRefresh = now;
+                refresh();
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Reloads the keys in the background. Concurrent calls share the refresh in progress.
+     *
+     * @return completes with the new keys, or exceptionally if they could not be loaded (the old keys are kept).
+     */
+    public CompletableFuture<JWKSet> refresh() {
+        CompletableFuture<JWKSet> future = new CompletableFuture<>();
+        while (!refreshing.compareAndSet(null, future)) {
+            CompletableFuture<JWKSet> running = refreshing.get();
+            if (running != null) {
+                return running;
+            }
+        }
+
+        executor.execute(() -> {
+            try {
+                JWKSet loaded = load();
+                jwkSet = loaded;
+                refreshing.set(null);
+                future.complete(loaded);
+            } catch (Exception e) {
+                log.warn("Could not refresh signing keys from {}", jwksUrl != null ? jwksUrl : jwksFile, e);
+                refreshing.set(null);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Helper method to load the keys from the JWKS URL (and save them to the file) or from the file.
+     */
+    private JWKSet load() throws IOException, ParseException {
+        if (jwksUrl == null) {
+            return JWKSet.parse(Files.readString(jwksFile, StandardCharsets.UTF_8));
+        }
+
+        JWKSet loaded = JWKSet.load(jwksUrl, CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS, SIZE_LIMIT_BYTES).toPublicJWKSet();
+        try {
+            Path parent = jwksFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, "jwks", ".tmp");
+            Files.writeString(temp, loaded.toString(), StandardCharsets.UTF_8);
+            Files.move(temp, jwksFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not save signing keys to {}", jwksFile, e);
+        }
+        return loaded;
+    }
+
+    /**
+     * Creates a JwtDecoder that verifies signatures with the keys of this source and validates the
+     * standard claims (expiry, not before) and the issuer.
+     *
+     * @param issuer the expected iss claim.
+     * @return the decoder.
+     */
+    public NimbusJwtDecoder createJwtDecoder(String issuer) {
+        Set<JWSAlgorithm> algorithms = new HashSet<>(JWSAlgorithm.Family.RSA);
+        algorithms.addAll(JWSAlgorithm.Family.EC);
+
+        DefaultJWTProcessor<SecurityContext> processor = new DefaultJWTProcessor<>();
+        processor.setJWSKeySelector(new JWSVerificationKeySelector<>(algorithms, this));
+        // Claims are validated by the Spring validators below
+        processor.setJWTClaimsSetVerifier((claims, context) -> { });
+
+        NimbusJwtDecoder decoder = new NimbusJwtDecoder(processor);
+        decoder.setJwtValidator(JwtValidators.createDefaultWithIssuer(issuer));
+        return decoder;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
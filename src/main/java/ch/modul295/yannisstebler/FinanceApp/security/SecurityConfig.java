@@ -1,11 +1,19 @@
 package ch.modul295.yannisstebler.financeapp.security;
 
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.csrf.CookieCsrfTokenRepository;
 import org.springframework.security.web.csrf.CsrfTokenRequestAttributeHandler;
@@ -21,6 +29,25 @@ public class SecurityConfig {
     @Value("${spring.application.name}")
     private String appName;
 
+    @Value("${financeapp.auth-cache.maximum-size:10000}")
+    private long authCacheMaximumSize;
+
+    @Value("${spring.security.oauth2.resourceserver.jwt.issuer-uri}")
+    private String issuerUri;
+
+    @Value("${financeapp.jwt.jwks-file:jwks.json}")
+    private Path jwksFile;
+
+    // Empty to only read the local file
+    @Value("${financeapp.jwt.jwks-uri:}")
+    private String jwksUri;
+
+    @Value("${financeapp.jwt.refresh-interval:5m}")
+    private Duration jwksRefreshInterval;
+
+    @Value("${financeapp.jwt.unknown-kid-cooldown:30s}")
+    private Duration unknownKidCooldown;
+
     // Whitelisted paths that don't require authentication
     private static final String[] AUTH_WHITELIST = {
         "/v3/api-docs/**",
@@ -38,8 +65,9 @@ public class SecurityConfig {
         http.authorizeHttpRequests(authorize -> authorize
                 .requestMatchers(AUTH_WHITELIST).permitAll() // Existing whitelist
                 .requestMatchers(new AntPathRequestMatcher("/api/users", "POST")).permitAll() // Allow POST to /api/users
+                .requestMatchers(EndpointRequest.to("health", "prometheus")).permitAll() // Scraped on the internal management port
                 .anyRequest().authenticated()) // Require authentication for all other requests
-                .oauth2ResourceServer(oauth2 -> oauth2.jwt(jwt -> jwt.jwtAuthenticationConverter(new AuthenticationRoleConverter(appName))))
+                .oauth2ResourceServer(oauth2 -> oauth2.jwt(jwt -> jwt.jwtAuthenticationConverter(new AuthenticationRoleConverter(appName, authCacheMaximumSize))))
                 .csrf(csrf -> csrf
                 .ignoringRequestMatchers(new AntPathRequestMatcher("/api/users", "POST"))
                 .csrfTokenRepository(CookieCsrfTokenRepository.withHttpOnlyFalse())
@@ -49,6 +77,20 @@ public class SecurityConfig {
         return http.build();
     }
 
+    @Bean(destroyMethod = "close")
+    public CachedJwkSource jwkSource() throws MalformedURLException {
+        URL url = jwksUri.isBlank() ? null : URI.create(jwksUri).toURL();
+        CachedJwkSource jwkSource = new CachedJwkSource(jwksFile, url, jwksRefreshInterval, unknownKidCooldown);
+        jwkSource.start();
+        return jwkSource;
+    }
+
+    // Replaces the issuer-uri based decoder, which fetches the provider configuration and keys on the request path
+    @Bean
+    public JwtDecoder jwtDecoder(CachedJwkSource jwkSource) {
+        return jwkSource.createJwtDecoder(issuerUri);
+    }
+
     @Bean
     public WebMvcConfigurer corsConfigurer() {
         return new WebMvcConfigurer() {
@@ -0,0 +1,160 @@
+package ch.modul295.yannisstebler.financeapp.services;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import ch.modul295.yannisstebler.financeapp.repository.BalanceIndexRepository;
+
+/**
+ * Service class for balance-as-of-date queries.
+ * Every user has a Fenwick tree over the daily net amounts of their transactions (see the V6 migration),
+ * so both a write and a balance query touch at most log2(DAYS) + 1 = 17 nodes.
+ * Nodes are only ever changed by atomic increments, so concurrent writes of the same user commute.
+ */
+@Service
+public class BalanceService {
+
+    // Day 1 of the trees; must match the V6 migration and BalanceIndexRepository
+    public static final LocalDate FIRST_DAY = LocalDate.of(1900, 1, 1);
+
+    // Number of days covered by a tree (a power of two)
+    public static final int DAYS = 1 << 17;
+
+    @Autowired
+    private BalanceIndexRepository balanceIndexRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Adds created transactions to their users' trees.
+     *
+     * @param transactions the created transactions.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordCreated(Collection<Transaction> transactions) {
+        record(List.of(), transactions);
+    }
+
+    /**
+     * Removes deleted transactions from their users' trees.
+     *
+     * @param transactions the deleted transactions.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordDeleted(Collection<Transaction> transactions) {
+        record(transactions, List.of());
+    }
+
+    /**
+     * Replaces the old state of an updated transaction with its new state in its user's tree.
+     *
+     * @param before a copy of the transaction before the update.
+     * @param after the updated transaction.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordUpdated(Transaction before, Transaction after) {
+        record(List.of(before), List.of(after));
+    }
+
+    /**
+     * Helper method to remove and add the signed amounts of transactions in one pass over the nodes covering their days.
+     * Deltas are summed per node first, so a write changes every node once; the changes are sent as JDBC batches.
+     */
+    private void record(Collection<Transaction> removed, Collection<Transaction> added) {
+        Map<String, Map<Integer, BigDecimal>> deltas = new TreeMap<>();
+        for (Transaction transaction : removed) {
+            addDeltas(deltas, transaction, true);
+        }
+        for (Transaction transaction : added) {
+            addDeltas(deltas, transaction, false);
+        }
+
+        // Users and nodes stay in ascending order, so concurrent writers lock the rows in the same order
+        deltas.values().forEach(nodes -> nodes.values().removeIf(amount -> amount.signum() == 0));
+        balanceIndexRepository.addToNodes(deltas);
+    }
+
+    /**
+     * Helper method to add the signed amount of a transaction to the deltas of the nodes covering its day.
+     */
+    private void addDeltas(Map<String, Map<Integer, BigDecimal>> deltas, Transaction transaction, boolean negate) {
+        BigDecimal amount = transaction.getType() == Transaction.Type.INCOME
+                ? transaction.getAmount()
+                : transaction.getAmount().negate();
+        if (negate) {
+            amount = amount.negate();
+        }
+
+        Map<Integer, BigDecimal> nodes = deltas.computeIfAbsent(transaction.getKeycloak_username(), owner -> new TreeMap<>());
+        for (int node = dayOf(transaction); node <= DAYS; node += node & -node) {
+            nodes.merge(node, amount, BigDecimal::add);
+        }
+    }
+
+    /**
+     * Helper method to compute the tree day of a transaction, in the time zone the dates are stored in.
+     */
+    private int dayOf(Transaction transaction) {
+        return dayOf(LocalDate.ofInstant(transaction.getDate().toInstant(), ZoneId.systemDefault()));
+    }
+
+    /**
+     * Helper method to compute the tree day of a date. Dates outside the tree are moved to its first or last day.
+     */
+    private int dayOf(LocalDate date) {
+        long day = ChronoUnit.DAYS.between(FIRST_DAY, date) + 1;
+        return (int) Math.max(1, Math.min(DAYS, day));
+    }
+
+    /**
+     * Retrieves the balance of a user at the end of a day.
+     *
+     * @param owner the username.
+     * @param at the day.
+     * @return the sum of the incomes minus the sum of the expenses up to and including this day.
+     */
+    public BigDecimal getBalance(String owner, LocalDate at) {
+        if (at.isBefore(FIRST_DAY)) {
+            return BigDecimal.ZERO;
+        }
+
+        List<Integer> nodes = new ArrayList<>();
+        for (int node = dayOf(at); node > 0; node -= node & -node) {
+            nodes.add(node);
+        }
+        return balanceIndexRepository.sumNodes(owner, nodes);
+    }
+
+    /**
+     * Recomputes the trees from scratch, e.g. after transactions were changed outside of the application.
+     * Transaction writes are blocked until the rebuild commits, so none of them can be counted twice or lost.
+     *
+     * @param owner the username whose tree is rebuilt, or null to rebuild the trees of all users.
+     * @return the number of nodes written.
+     */
+    @Transactional
+    public int rebuildBalances(String owner) {
+        jdbcTemplate.execute("LOCK TABLE transactions IN SHARE MODE");
+        if (owner == null) {
+            balanceIndexRepository.deleteAllNodes();
+            return balanceIndexRepository.insertNodesFromTransactions();
+        }
+        balanceIndexRepository.deleteNodesByOwner(owner);
+        return balanceIndexRepository.insertNodesFromTransactionsByOwner(owner);
+    }
+}
@@ -0,0 +1,385 @@
+package ch.modul295.yannisstebler.financeapp.services;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ch.modul295.yannisstebler.financeapp.model.Budget;
+import ch.modul295.yannisstebler.financeapp.model.SpendRollup;
+import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import ch.modul295.yannisstebler.financeapp.model.dto.BudgetAlertDTO;
+import ch.modul295.yannisstebler.financeapp.repository.BudgetRepository;
+import ch.modul295.yannisstebler.financeapp.repository.SpendRollupRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Service class for the budget alerts: a BudgetAlertDTO application event whenever a transaction write makes the
+ * month's expenses in a budget's category reach one of financeapp.budget-alerts.thresholds (percent of the limit).
+ * Every threshold is reported once per crossing; it is reported again only after the expenses fell below it.
+ * Alerts are counted as financeapp.budget.alerts and sent to the change streams (see ChangeStreamService).
+ *
+ * The expenses per user, category and month are held in memory, seeded from the spend rollups at startup and updated
+ * with the rollups (see SpendRollupService), so a write costs a map update per budget of its category. Writes are
+ * applied after their commit, one at a time per user, category and month. Only the current month, the
+ * financeapp.budget-alerts.months-back months before it and later months are tracked.
+ * Budget changes are loaded in the background; changing a limit never raises an alert by itself.
+ *
+ * Reloading the expenses (at startup and after a rollup rebuild) is atomic with the writes: committing writes hold a
+ * read lock from before their commit until they are applied, and a reload holds the write lock while it reads and
+ * replaces the expenses. Every write is therefore either part of the reloaded rollups or applied after them, never both.
+ *
+ * Like the list versions (see ResourceVersionService), the expenses only include the writes of this instance.
+ */
+@Service
+public class BudgetAlertService {
+
+    private static final Logger log = LoggerFactory.getLogger(BudgetAlertService.class);
+
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+
+    @Autowired
+    private SpendRollupRepository spendRollupRepository;
+
+    @Autowired
+    private BudgetRepository budgetRepository;
+
+    @Autowired
+    private ResourceVersionService resourceVersionService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${financeapp.budget-alerts.thresholds:80,100}")
+    private List<Integer> thresholds;
+
+    @Value("${financeapp.budget-alerts.months-back:1}")
+    private int monthsBack;
+
+    // Expenses per user, category and month
+    private final Map<SpendKey, Spend> spends = new ConcurrentHashMap<>();
+
+    // Budget limits per user and category, replaced as a whole per user
+    private final Map<String, Map<Long, List<BudgetLimit>>> budgets = new ConcurrentHashMap<>();
+
+    // Loads budgets and rollups one after the other, so an older result never replaces a newer one
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+
+    // Read lock: a write between its commit and its evaluation; write lock: a reload of the expenses
+    private final ReadWriteLock reloadLock = new ReentrantReadWriteLock();
+
+    private record SpendKey(String owner, long categoryId, LocalDate period) {
+    }
+
+    private record BudgetLimit(long budgetId, BigDecimal limit) {
+    }
+
+    /**
+     * Thresholds reached by the expenses, for the limit they were computed with.
+     */
+    private record Reached(BigDecimal limit, int count) {
+    }
+
+    /**
+     * The expenses of a user in a category and month; only changed inside ConcurrentHashMap.compute.
+     */
+    private static final class Spend {
+
+        private BigDecimal total;
+
+        // Thresholds reached per budget ID
+        private final Map<Long, Reached> reached = new HashMap<>();
+
+        private Spend(BigDecimal total) {
+            this.total = total;
+        }
+    }
+
+    /**
+     * Seeds the budgets and expenses before requests are served and subscribes to budget changes.
+     */
+    @PostConstruct
+    public void init() {
+        thresholds = thresholds.stream().sorted().toList();
+        loadBudgets(null);
+        loadSpends(null);
+        resourceVersionService.addChangeListener((owner, resources) -> {
+            if (List.of(resources).contains(ResourceVersionService.Resource.BUDGETS)) {
+                loader.execute(() -> loadBudgets(owner));
+            }
+        });
+    }
+
+    /**
+     * Records expense changes of the current database transaction, evaluated once it commits.
+     * Changes of several calls in one transaction are added up first, like the old and new state of an updated
+     * transaction (see SpendRollupService), so an update within the same month and category only counts its difference.
+     *
+     * @param totals the signed changes of the rollup rows: positive for created transactions, negative for deleted ones.
+     */
+    public void recordSpend(Map<SpendRollup.Key, BigDecimal> totals) {
+        LocalDate windowStart = windowStart();
+        Map<SpendKey, BigDecimal> deltas = pendingDeltas();
+        totals.forEach((key, total) -> {
+            if (key.getType() == Transaction.Type.EXPENSE && key.getCategory_id() != SpendRollupService.NO_CATEGORY
+                    && !key.getPeriod_start().isBefore(windowStart)) {
+                SpendKey spendKey = new SpendKey(key.getKeycloak_username(), key.getCategory_id(), key.getPeriod_start());
+                deltas.merge(spendKey, total, BigDecimal::add);
+            }
+        });
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            reloadLock.readLock().lock();
+            try {
+                evaluate(deltas);
+            } finally {
+                reloadLock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Replaces the expenses of a user with the spend rollups once the current transaction commits,
+     * e.g. after the rollups were rebuilt. No alerts are raised for the difference.
+     *
+     * @param owner the username whose expenses are reloaded, or null for all users.
+     */
+    public void reloadSpends(String owner) {
+        Runnable reload = () -> loader.execute(() -> loadSpends(owner));
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            reload.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                reload.run();
+            }
+        });
+    }
+
+    /**
+     * Forgets the expenses of months that are no longer tracked.
+     */
+    @Scheduled(cron = "${financeapp.budget-alerts.cleanup-cron:0 0 1 * * *}")
+    public void removeOldMonths() {
+        LocalDate windowStart = windowStart();
+        spends.keySet().removeIf(key -> key.period().isBefore(windowStart));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdown();
+    }
+
+    /**
+     * Helper method to get the expense changes collected in the current transaction.
+     * The first call of a transaction registers their evaluation after the commit.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<SpendKey, BigDecimal> pendingDeltas() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return new HashMap<>();
+        }
+        Map<SpendKey, BigDecimal> deltas = (Map<SpendKey, BigDecimal>) TransactionSynchronizationManager.getResource(this);
+        if (deltas != null) {
+            return deltas;
+        }
+
+        Map<SpendKey, BigDecimal> newDeltas = new HashMap<>();
+        TransactionSynchronizationManager.bindResource(this, newDeltas);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+
+            private boolean locked;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                // Held across the commit, so a reload sees the write either committed and applied, or not at all
+                reloadLock.readLock().lock();
+                locked = true;
+            }
+
+            @Override
+            public void afterCommit() {
+                evaluate(newDeltas);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (locked) {
+                    reloadLock.readLock().unlock();
+                }
+                TransactionSynchronizationManager.unbindResourceIfPossible(BudgetAlertService.this);
+            }
+        });
+        return newDeltas;
+    }
+
+    /**
+     * Helper method to apply committed expense changes and publish the thresholds they reached.
+     */
+    private void evaluate(Map<SpendKey, BigDecimal> deltas) {
+        List<BudgetAlertDTO> alerts = new ArrayList<>();
+        deltas.forEach((key, delta) -> {
+            if (delta.signum() == 0) {
+                return;
+            }
+            spends.compute(key, (k, spend) -> apply(k, spend == null ? new Spend(BigDecimal.ZERO) : spend, delta, alerts));
+        });
+
+        for (BudgetAlertDTO alert : alerts) {
+            log.info("Budget {} of {} reached {}% in {}: {} of {}", alert.getBudget_id(), alert.getKeycloak_username(),
+                    alert.getThreshold(), alert.getMonth(), alert.getSpent(), alert.getLimit_amount());
+            meterRegistry.counter("financeapp.budget.alerts", "threshold", Integer.toString(alert.getThreshold())).increment();
+            eventPublisher.publishEvent(alert);
+        }
+    }
+
+    /**
+     * Helper method to add an expense change to the expenses of a user, category and month, and collect the thresholds
+     * of its budgets reached by it. The reached thresholds of a new or changed budget are taken from the expenses
+     * before the change, so only the change itself can raise an alert.
+     */
+    private Spend apply(SpendKey key, Spend spend, BigDecimal delta, List<BudgetAlertDTO> alerts) {
+        BigDecimal before = spend.total;
+        spend.total = before.add(delta);
+
+        List<BudgetLimit> limits = budgets.getOrDefault(key.owner(), Map.of()).getOrDefault(key.categoryId(), List.of());
+        Set<Long> budgetIds = new HashSet<>();
+        for (BudgetLimit budget : limits) {
+            budgetIds.add(budget.budgetId());
+            Reached previous = spend.reached.get(budget.budgetId());
+            int previousCount = previous != null && previous.limit().compareTo(budget.limit()) == 0
+                    ? previous.count()
+                    : reachedThresholds(before, budget.limit());
+            int count = reachedThresholds(spend.total, budget.limit());
+            for (int i = previousCount; i < count; i++) {
+                alerts.add(new BudgetAlertDTO(budget.budgetId(), key.owner(), key.categoryId(), YearMonth.from(key.period()),
+                        thresholds.get(i), budget.limit(), spend.total));
+            }
+            spend.reached.put(budget.budgetId(), new Reached(budget.limit(), count));
+        }
+        spend.reached.keySet().retainAll(budgetIds);
+        return spend;
+    }
+
+    /**
+     * Helper method to count the thresholds reached by expenses. Without expenses no threshold is reached, even of a
+     * zero limit.
+     */
+    private int reachedThresholds(BigDecimal spent, BigDecimal limit) {
+        if (spent.signum() <= 0) {
+            return 0;
+        }
+        int count = 0;
+        for (int threshold : thresholds) {
+            if (spent.multiply(HUNDRED).compareTo(limit.multiply(BigDecimal.valueOf(threshold))) < 0) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Helper method to replace the budget limits of a user, or of all users.
+     */
+    private void loadBudgets(String owner) {
+        Map<String, Map<Long, List<BudgetLimit>>> loaded = new HashMap<>();
+        for (Budget budget : budgetRepository.findAllByOwner(owner)) {
+            if (budget.getCategory() != null) {
+                loaded.computeIfAbsent(budget.getKeycloak_username(), k -> new HashMap<>())
+                        .computeIfAbsent(budget.getCategory().getId(), k -> new ArrayList<>())
+                        .add(new BudgetLimit(budget.getId(), budget.getLimit_amount()));
+            }
+        }
+
+        if (owner == null) {
+            budgets.keySet().retainAll(loaded.keySet());
+            budgets.putAll(loaded);
+        } else if (loaded.containsKey(owner)) {
+            budgets.put(owner, loaded.get(owner));
+        } else {
+            budgets.remove(owner);
+        }
+    }
+
+    /**
+     * Helper method to replace the tracked expenses of a user, or of all users, with the spend rollups.
+     * Reads the primary database (a read-write transaction), as a replica may miss writes that were already applied.
+     */
+    private void loadSpends(String owner) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transaction.executeWithoutResult(status -> {
+            // Takes the connection before the lock: writes waiting for the lock hold pooled connections themselves
+            jdbcTemplate.execute("SELECT 1");
+
+            reloadLock.writeLock().lock();
+            try {
+                replaceSpends(owner);
+            } finally {
+                reloadLock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Helper method to read the spend rollups and replace the expenses with them, while no write is being committed.
+     */
+    private void replaceSpends(String owner) {
+        LocalDate windowStart = windowStart();
+        Map<SpendKey, BigDecimal> loaded = new HashMap<>();
+        for (SpendRollup rollup : spendRollupRepository.findByOwnerAndTypeSince(owner, Transaction.Type.EXPENSE, windowStart)) {
+            if (rollup.getCategory_id() != SpendRollupService.NO_CATEGORY) {
+                loaded.put(new SpendKey(rollup.getKeycloak_username(), rollup.getCategory_id(), rollup.getPeriod_start()),
+                        rollup.getTotal());
+            }
+        }
+
+        spends.keySet().removeIf(key -> (owner == null || key.owner().equals(owner)) && !loaded.containsKey(key));
+        // The reached thresholds are recomputed from the reloaded total by the next write
+        loaded.forEach((key, total) -> spends.compute(key, (k, spend) -> new Spend(total)));
+    }
+
+    /**
+     * Helper method to compute the first tracked month.
+     */
+    private LocalDate windowStart() {
+        return YearMonth.now().minusMonths(monthsBack).atDay(1);
+    }
+}
@@ -1,17 +1,21 @@
 package ch.modul295.yannisstebler.financeapp.services;
 
+import java.time.YearMonth;
 import java.util.List;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import ch.modul295.yannisstebler.financeapp.model.Budget;
+import ch.modul295.yannisstebler.financeapp.model.Category;
 import ch.modul295.yannisstebler.financeapp.model.dto.BudgetDTO;
+import ch.modul295.yannisstebler.financeapp.model.dto.BudgetPatchDTO;
+import ch.modul295.yannisstebler.financeapp.model.dto.BudgetUtilisationDTO;
 import ch.modul295.yannisstebler.financeapp.repository.BudgetRepository;
-import ch.modul295.yannisstebler.financeapp.repository.CategoryRepository;
+import ch.modul295.yannisstebler.financeapp.repository.SpendRollupRepository;
 
 /**
  * Service class for handling business logic related to budgets.
@@ -23,35 +27,58 @@ public class BudgetService {
     private BudgetRepository budgetRepository;
 
     @Autowired
-    private CategoryRepository categoryRepository; 
+    private CategoryService categoryService;
+
+    @Autowired
+    private SpendRollupRepository spendRollupRepository;
+
+    @Autowired
+    private ResourceVersionService resourceVersionService;
 
     /**
-     * Helper method to get the 'preferred_username' from the JWT token.
+     * Retrieves the budgets of an owner from the database.
      *
-     * @return the 'preferred_username' from the JWT token.
+     * @param owner the username the budgets must belong to, or null for all budgets (admins).
+     * @return a list of the owner's budgets.
      */
-    private String getPreferredUsernameFromToken() {
-        Jwt jwt = (Jwt) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        return jwt.getClaim("preferred_username");
+    @Transactional(readOnly = true)
+    public List<Budget> getAllBudgets(String owner) {
+        return budgetRepository.findAllByOwner(owner);
     }
 
     /**
-     * Retrieves all budgets from the database.
+     * Retrieves how much of each budget has been spent in a month.
+     * Reads the expense rollups of the budgets' categories instead of the transactions.
      *
-     * @return a list of all budgets.
+     * @param owner the username whose budgets are evaluated, or null for all users (admins).
+     * @param month the month.
+     * @return one entry per budget.
      */
-    public List<Budget> getAllBudgets() {
-        return budgetRepository.findAll();
+    public List<BudgetUtilisationDTO> getBudgetUtilisation(String owner, YearMonth month) {
+        return spendRollupRepository.findBudgetUtilisation(owner, month.atDay(1));
     }
 
     /**
-     * Retrieves a specific budget by its ID.
+     * Retrieves a specific budget by its ID if it belongs to the owner.
      *
      * @param id the ID of the budget.
+     * @param owner the username the budget must belong to, or null for any owner (admins).
      * @return an Optional containing the found budget or empty if not found.
      */
-    public Optional<Budget> getBudgetById(Long id) {
-        return budgetRepository.findById(id);
+    @Transactional(readOnly = true)
+    public Optional<Budget> getBudgetById(Long id, String owner) {
+        return budgetRepository.findByIdAndOwner(id, owner);
+    }
+
+    /**
+     * Checks whether a budget with the given ID exists, regardless of its owner.
+     * Only used to tell "not found" from "forbidden" after an owner-scoped operation matched nothing.
+     *
+     * @param id the ID of the budget.
+     * @return true if the budget exists.
+     */
+    public boolean budgetExists(Long id) {
+        return budgetRepository.existsById(id);
     }
 
     /**
@@ -60,48 +87,104 @@ public class BudgetService {
      * @param username the username of the user creating the budget.
      * @param budgetDTO the DTO containing budget creation data.
      * @return the newly created budget.
+     * @throws IllegalArgumentException if the category or limit is missing, or the category does not exist or belongs to another user.
      */
     public Budget createBudget(String username, BudgetDTO budgetDTO) {
+        requireCategoryAndLimit(budgetDTO);
         Budget budget = new Budget();
         budget.setKeycloak_username(username); 
-        budget.setCategory(categoryRepository.findById(budgetDTO.getCategory_id()).get()); 
+        budget.setCategory(categoryService.getCachedCategory(budgetDTO.getCategory_id(), username)
+                .orElseThrow(() -> new IllegalArgumentException("Category not found")));
         budget.setLimit_amount(budgetDTO.getLimit_amount()); 
-        return budgetRepository.save(budget);
+        Budget savedBudget = budgetRepository.save(budget);
+        resourceVersionService.changed(username, ResourceVersionService.Resource.BUDGETS);
+        return savedBudget;
     }
 
     /**
-     * Updates an existing budget with the provided information.
+     * Replaces the category and limit of an existing budget in a single statement; both are required.
+     * The owner of the budget is never changed.
      *
+     * @param owner the username the budget must belong to, or null for any owner (admins).
      * @param id the ID of the budget to be updated.
      * @param budgetDTO the DTO containing updated budget data.
-     * @return the updated budget.
-     * @throws IllegalArgumentException if the budget with the given ID does not exist.
+     * @return true if the budget was updated, false if no matching budget exists.
+     * @throws IllegalArgumentException if the category or limit is missing, or the category does not exist or belongs to another user.
      */
-    public Budget updateBudget(Long id, BudgetDTO budgetDTO) {
-        if (budgetRepository.existsById(id)) { 
+    public boolean updateBudget(String owner, Long id, BudgetDTO budgetDTO) {
+        requireCategoryAndLimit(budgetDTO);
+        Category category = categoryService.getCachedCategory(budgetDTO.getCategory_id(), owner)
+                .orElseThrow(() -> new IllegalArgumentException("Category not found"));
+        boolean updated = budgetRepository.updateByIdAndOwner(id, owner, category, budgetDTO.getLimit_amount()) > 0;
+        if (updated) {
+            resourceVersionService.changed(owner, ResourceVersionService.Resource.BUDGETS);
+        }
+        return updated;
+    }
 
-            String preferredUsername = getPreferredUsernameFromToken();
+    /**
+     * Changes some fields of a budget. Only the changed columns are written, and the version check of the UPDATE
+     * detects concurrent changes.
+     *
+     * @param owner the username the budget must belong to, or null for any owner (admins).
+     * @param id the ID of the budget to change.
+     * @param patch the fields to change; null fields keep their value.
+     * @return the changed budget with its new version, or empty if no matching budget exists.
+     * @throws OptimisticLockingFailureException if the budget does not have the expected version or changed concurrently.
+     * @throws IllegalArgumentException if the category does not exist or belongs to another user.
+     */
+    @Transactional
+    public Optional<Budget> patchBudget(String owner, Long id, BudgetPatchDTO patch) {
+        Optional<Budget> existing = budgetRepository.findByIdAndOwner(id, owner);
+        if (existing.isEmpty()) {
+            return Optional.empty();
+        }
 
-            Budget budget = budgetRepository.findById(id).get();
-            budget.setKeycloak_username(preferredUsername); 
-            budget.setCategory(categoryRepository.findById(budgetDTO.getCategory_id()).get());
-            budget.setLimit_amount(budgetDTO.getLimit_amount()); 
+        Budget budget = existing.get();
+        if (patch.getVersion() != null && !patch.getVersion().equals(budget.getVersion())) {
+            throw new OptimisticLockingFailureException("Budget " + id + " has version " + budget.getVersion());
+        }
+        if (patch.getCategory_id() != null) {
+            budget.setCategory(categoryService.getCachedCategory(patch.getCategory_id(), budget.getKeycloak_username())
+                    .orElseThrow(() -> new IllegalArgumentException("Category not found")));
+        }
+        if (patch.getLimit_amount() != null && patch.getLimit_amount().compareTo(budget.getLimit_amount()) != 0) {
+            budget.setLimit_amount(patch.getLimit_amount());
+        }
 
-            return budgetRepository.save(budget); 
-        } else {
-            throw new IllegalArgumentException("Budget not found"); 
+        // Runs the UPDATE (if anything changed) now, so the returned budget carries its new version
+        Long version = budget.getVersion();
+        budgetRepository.flush();
+        if (!version.equals(budget.getVersion())) {
+            resourceVersionService.changed(budget.getKeycloak_username(), ResourceVersionService.Resource.BUDGETS);
         }
+        return Optional.of(budget);
     }
 
     /**
-     * Deletes a specific budget by its ID.
+     * Deletes a specific budget by its ID in a single statement.
      *
      * @param id the ID of the budget to be deleted.
-     * @return an Optional containing the deleted budget or empty if not found.
+     * @param owner the username the budget must belong to, or null for any owner (admins).
+     * @return true if the budget was deleted, false if no matching budget exists.
      */
-    public Optional<Budget> deleteBudget(Long id) {
-        Optional<Budget> deletedBudget = budgetRepository.findById(id); 
-        budgetRepository.deleteById(id);
-        return deletedBudget; 
+    public boolean deleteBudget(Long id, String owner) {
+        boolean deleted = budgetRepository.deleteByIdAndOwner(id, owner) > 0;
+        if (deleted) {
+            resourceVersionService.changed(owner, ResourceVersionService.Resource.BUDGETS);
+        }
+        return deleted;
+    }
+
+    /**
+     * Helper method to reject a budget without category or limit; use PATCH to change only one of them.
+     */
+    private static void requireCategoryAndLimit(BudgetDTO budgetDTO) {
+        if (budgetDTO.getCategory_id() == null) {
+            throw new IllegalArgumentException("Category is missing");
+        }
+        if (budgetDTO.getLimit_amount() == null) {
+            throw new IllegalArgumentException("Limit is missing");
+        }
     }
 }
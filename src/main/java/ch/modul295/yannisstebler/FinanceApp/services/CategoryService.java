@@ -1,12 +1,27 @@
 package ch.modul295.yannisstebler.financeapp.services;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 
 import ch.modul295.yannisstebler.financeapp.model.Category;
+import ch.modul295.yannisstebler.financeapp.model.dto.CacheStatsDTO;
+import ch.modul295.yannisstebler.financeapp.model.dto.CategoryPatchDTO;
 import ch.modul295.yannisstebler.financeapp.repository.CategoryRepository;
 
 /**
@@ -18,6 +33,12 @@ public class CategoryService {
     @Autowired
     private final CategoryRepository categoryRepository; 
 
+    @Autowired
+    private Cache<Long, Category> categoryCache;
+
+    @Autowired
+    private ResourceVersionService resourceVersionService;
+
     /**
      * Constructor for CategoryService.
      *
@@ -28,23 +49,96 @@ public class CategoryService {
     }
 
     /**
-     * Retrieves all categories from the database.
+     * Retrieves the categories of an owner from the database.
      *
-     * @return a list of all categories.
+     * @param owner the username the categories must belong to, or null for all categories (admins).
+     * @return a list of the owner's categories.
      */
-    public List<Category> getAllCategories() {
-        return categoryRepository.findAll(); 
+    @Transactional(readOnly = true)
+    public List<Category> getAllCategories(String owner) {
+        return categoryRepository.findAllByOwner(owner);
     }
 
     /**
-     * Retrieves a specific category by its ID.
+     * Retrieves a specific category by its ID if it belongs to the owner.
      *
      * @param id the ID of the category.
+     * @param owner the username the category must belong to, or null for any owner (admins).
      * @return an Optional containing the found category or empty if not found.
      */
-    public Optional<Category> getCategoryById(Long id) {
-        Optional<Category> category = categoryRepository.findById(id); 
-        return category;
+    @Transactional(readOnly = true)
+    public Optional<Category> getCategoryById(Long id, String owner) {
+        return categoryRepository.findByIdAndOwner(id, owner);
+    }
+
+    /**
+     * Retrieves a category for a write path (e.g. a new transaction or budget) from the category cache.
+     * Only a cache miss reads the database.
+     *
+     * @param id the ID of the category.
+     * @param owner the username the category must belong to, or null for any owner (admins).
+     * @return an Optional containing the category or empty if it does not exist or belongs to another user.
+     */
+    public Optional<Category> getCachedCategory(Long id, String owner) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        // Not categoryCache.get(id, loader): the loader runs while holding a map bin lock, which pins a virtual thread
+        // for the whole query. Two concurrent misses may both read the category, which is harmless.
+        Category category = categoryCache.getIfPresent(id);
+        if (category == null) {
+            category = categoryRepository.findById(id).map(CategoryService::unproxy).orElse(null);
+            if (category != null) {
+                categoryCache.put(id, category);
+            }
+        }
+        return Optional.ofNullable(category).filter(found -> owner == null || owner.equals(found.getKeycloak_username()));
+    }
+
+    /**
+     * Retrieves several categories from the category cache. All misses are read with a single query.
+     *
+     * @param ids the IDs of the categories.
+     * @param owner the username the categories must belong to.
+     * @return the categories that exist and belong to the owner, by ID.
+     */
+    public Map<Long, Category> getCachedCategories(Collection<Long> ids, String owner) {
+        Map<Long, Category> categories = categoryCache.getAll(ids, missing -> categoryRepository.findAllById(new ArrayList<Long>(missing)).stream()
+                .map(CategoryService::unproxy)
+                .collect(Collectors.toMap(Category::getId, Function.identity())));
+        return categories.values().stream()
+                .filter(category -> owner.equals(category.getKeycloak_username()))
+                .collect(Collectors.toMap(Category::getId, Function.identity()));
+    }
+
+    /**
+     * Helper method to get the category itself if the persistence context returned a proxy, e.g. because a transaction
+     * referencing it was loaded first. Cached proxies would outlive their session and could not be serialized.
+     */
+    private static Category unproxy(Category category) {
+        return Hibernate.unproxy(category, Category.class);
+    }
+
+    /**
+     * Retrieves the hit, miss and eviction counters of the category cache.
+     *
+     * @return the statistics since the start of the application.
+     */
+    public CacheStatsDTO getCategoryCacheStats() {
+        CacheStats stats = categoryCache.stats();
+        return new CacheStatsDTO(categoryCache.estimatedSize(), stats.hitCount(), stats.missCount(), stats.hitRate(),
+                stats.evictionCount());
+    }
+
+    /**
+     * Checks whether a category with the given ID exists, regardless of its owner.
+     * Only used to tell "not found" from "forbidden" after an owner-scoped operation matched nothing.
+     *
+     * @param id the ID of the category.
+     * @return true if the category exists.
+     */
+    public boolean categoryExists(Long id) {
+        return categoryRepository.existsById(id);
     }
 
     /**
@@ -54,36 +148,103 @@ public class CategoryService {
      * @return the newly created category.
      */
     public Category createCategory(Category category) {
-        return categoryRepository.save(category); 
+        // A client-supplied id or version would make save() merge into an existing row
+        category.setId(null);
+        category.setVersion(null);
+        Category savedCategory = categoryRepository.save(category);
+        resourceVersionService.changed(savedCategory.getKeycloak_username(), ResourceVersionService.Resource.CATEGORIES);
+        return savedCategory;
     }
 
     /**
-     * Updates an existing category.
+     * Updates an existing category in a single statement and removes it from the category cache once the change is committed.
+     * The owner of the category is never changed.
      *
+     * @param owner the username the category must belong to, or null for any owner (admins).
      * @param id the ID of the category to be updated.
      * @param category the updated category data.
-     * @return the updated category.
-     * @throws IllegalArgumentException if the category with the given ID does not exist.
+     * @return true if the category was updated, false if no matching category exists.
      */
-    public Category updateCategory(Long id, Category category) {
-        if (categoryRepository.existsById(id)) {  
-            category.setId(id); 
-            Category updatedCategory = categoryRepository.save(category);
-            return updatedCategory;
-        } else {
-            throw new IllegalArgumentException("Category not found"); 
+    @Transactional
+    public boolean updateCategory(String owner, Long id, Category category) {
+        boolean updated = categoryRepository.updateByIdAndOwner(id, owner, category.getName(), category.getDescription()) > 0;
+        if (updated) {
+            invalidateAfterCommit(id);
+            // Transactions and budgets embed their category
+            resourceVersionService.changed(owner, ResourceVersionService.Resource.CATEGORIES,
+                    ResourceVersionService.Resource.TRANSACTIONS, ResourceVersionService.Resource.BUDGETS);
         }
+        return updated;
     }
 
     /**
-     * Deletes a specific category by its ID.
+     * Changes some fields of a category and removes it from the category cache once the change is committed.
+     * Only the changed columns are written, and the version check of the UPDATE detects concurrent changes.
+     *
+     * @param owner the username the category must belong to, or null for any owner (admins).
+     * @param id the ID of the category to change.
+     * @param patch the fields to change; null fields keep their value.
+     * @return the changed category with its new version, or empty if no matching category exists.
+     * @throws OptimisticLockingFailureException if the category does not have the expected version or changed concurrently.
+     */
+    @Transactional
+    public Optional<Category> patchCategory(String owner, Long id, CategoryPatchDTO patch) {
+        Optional<Category> existing = categoryRepository.findByIdAndOwner(id, owner);
+        if (existing.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Category category = existing.get();
+        if (patch.getVersion() != null && !patch.getVersion().equals(category.getVersion())) {
+            throw new OptimisticLockingFailureException("Category " + id + " has version " + category.getVersion());
+        }
+        if (patch.getName() != null) {
+            category.setName(patch.getName());
+        }
+        if (patch.getDescription() != null) {
+            category.setDescription(patch.getDescription());
+        }
+
+        // Runs the UPDATE (if anything changed) now, so the returned category carries its new version
+        Long version = category.getVersion();
+        categoryRepository.flush();
+        if (!version.equals(category.getVersion())) {
+            invalidateAfterCommit(id);
+            // Transactions and budgets embed their category
+            resourceVersionService.changed(category.getKeycloak_username(), ResourceVersionService.Resource.CATEGORIES,
+                    ResourceVersionService.Resource.TRANSACTIONS, ResourceVersionService.Resource.BUDGETS);
+        }
+        return Optional.of(category);
+    }
+
+    /**
+     * Deletes a specific category by its ID in a single statement and removes it from the category cache once the
+     * deletion is committed.
      *
      * @param id the ID of the category to be deleted.
-     * @return an Optional containing the deleted category or empty if not found.
+     * @param owner the username the category must belong to, or null for any owner (admins).
+     * @return true if the category was deleted, false if no matching category exists.
+     */
+    @Transactional
+    public boolean deleteCategory(Long id, String owner) {
+        boolean deleted = categoryRepository.deleteByIdAndOwner(id, owner) > 0;
+        if (deleted) {
+            invalidateAfterCommit(id);
+            resourceVersionService.changed(owner, ResourceVersionService.Resource.CATEGORIES);
+        }
+        return deleted;
+    }
+
+    /**
+     * Helper method to remove a category from the category cache once the current transaction commits.
+     * Invalidated only after the commit, so a concurrent cache miss cannot load the old row again.
      */
-    public Optional<Category> deleteCategory(Long id) {
-        Optional<Category> deletedCategory = categoryRepository.findById(id);
-        categoryRepository.deleteById(id);
-        return deletedCategory; 
+    private void invalidateAfterCommit(Long id) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                categoryCache.invalidate(id);
+            }
+        });
     }
 }
@@ -0,0 +1,448 @@
+package ch.modul295.yannisstebler.financeapp.services;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import ch.modul295.yannisstebler.financeapp.model.dto.BudgetAlertDTO;
+import ch.modul295.yannisstebler.financeapp.model.dto.ChangeEventDTO;
+import ch.modul295.yannisstebler.financeapp.services.ResourceVersionService.Resource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Service class for the change streams (GET /api/stream): Server-Sent Events telling a user that their transactions,
+ * budgets or categories changed, with the new ETag of the list endpoint so the client can refetch with If-None-Match.
+ * Admins receive the changes of every user, with the ETags of the admin view.
+ * Budget alerts (see BudgetAlertService) are sent to the same streams as budget-alert events.
+ *
+ * An open stream holds no thread: events are written on virtual threads, at most one per stream at a time.
+ * A client that reads slowly gets its changes merged, at most one pending event per resource and the newest alert per
+ * budget, so it never holds more than a few events in memory. A comment line is sent every financeapp.stream.heartbeat-interval so proxies
+ * keep idle streams open and closed ones are detected.
+ *
+ * The last financeapp.stream.replay-size changes are kept, so a client reconnecting with Last-Event-ID gets the
+ * changes it missed. If they are no longer kept (or the ID was issued before a restart), it gets an event for every
+ * resource instead and compares the ETags; missed budget alerts are then lost (see GET /api/budgets/utilisation).
+ */
+@Service
+public class ChangeStreamService {
+
+    @Autowired
+    private ResourceVersionService resourceVersionService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${financeapp.stream.replay-size:1000}")
+    private int replaySize;
+
+    // Further requests get 503 until streams are closed
+    @Value("${financeapp.stream.max-connections:10000}")
+    private int maxConnections;
+
+    // Streams are closed after this time; clients reconnect with Last-Event-ID
+    @Value("${financeapp.stream.timeout:30m}")
+    private Duration timeout;
+
+    @Value("${financeapp.stream.reconnect-delay:3s}")
+    private Duration reconnectDelay;
+
+    // Distinguishes the event IDs of this instance from those issued by an earlier run
+    private final String instanceId = Long.toString(System.currentTimeMillis(), 36);
+
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+
+    // The last changes, oldest first, and the ID of the newest one; guarded by this
+    private final Deque<Change> replayBuffer = new ArrayDeque<>();
+    private long lastId;
+
+    // Open streams by username; admins are kept apart since they receive every change
+    private final Map<String, Set<Connection>> userConnections = new ConcurrentHashMap<>();
+    private final Set<Connection> adminConnections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    /**
+     * A committed change or a budget alert, as kept for replay.
+     */
+    private record Change(long id, String owner, Resource[] resources, BudgetAlertDTO alert) {
+    }
+
+    /**
+     * An event waiting to be written: the change of a resource or a budget alert.
+     */
+    private record Event(long id, Resource resource, BudgetAlertDTO alert) {
+    }
+
+    /**
+     * Subscribes to the committed changes and registers the number of open streams as financeapp.stream.connections.
+     */
+    @PostConstruct
+    public void init() {
+        resourceVersionService.addChangeListener(this::publish);
+        Gauge.builder("financeapp.stream.connections", connectionCount, AtomicInteger::get)
+                .description("Open change streams")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Opens a change stream.
+     *
+     * @param owner the username whose changes are streamed, or null for the changes of every user (admins).
+     * @param lastEventId the ID of the last event received before a reconnect, or null for a new stream.
+     * @return the stream, or null if financeapp.stream.max-connections streams are open.
+     */
+    public SseEmitter connect(String owner, String lastEventId) {
+        if (connectionCount.incrementAndGet() > maxConnections) {
+            connectionCount.decrementAndGet();
+            return null;
+        }
+
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Connection connection = new Connection(owner, emitter);
+        emitter.onCompletion(() -> remove(connection));
+        emitter.onError(e -> remove(connection));
+        emitter.onTimeout(emitter::complete);
+
+        // Registered together with the replay, so every change is either replayed or published to the stream
+        synchronized (this) {
+            if (owner == null) {
+                adminConnections.add(connection);
+            } else {
+                userConnections.compute(owner, (key, connections) -> {
+                    Set<Connection> set = connections == null ? ConcurrentHashMap.newKeySet() : connections;
+                    set.add(connection);
+                    return set;
+                });
+            }
+            replay(connection, lastEventId);
+        }
+        connection.start();
+        return emitter;
+    }
+
+    /**
+     * Publishes a committed change to the streams of its owner and of the admins, or to all streams if the owner
+     * is not known.
+     *
+     * @param owner the username whose resources changed, or null if the owner is not known.
+     * @param resources the changed resources.
+     */
+    public synchronized void publish(String owner, Resource... resources) {
+        long id = addChange(owner, resources, null);
+
+        if (owner == null) {
+            userConnections.values().forEach(connections -> connections.forEach(c -> c.enqueue(id, resources)));
+        } else {
+            userConnections.getOrDefault(owner, Set.of()).forEach(c -> c.enqueue(id, resources));
+        }
+        adminConnections.forEach(c -> c.enqueue(id, resources));
+    }
+
+    /**
+     * Publishes a budget alert to the streams of the budget's owner and of the admins.
+     *
+     * @param alert the alert.
+     */
+    @EventListener
+    public synchronized void publishAlert(BudgetAlertDTO alert) {
+        long id = addChange(alert.getKeycloak_username(), new Resource[0], alert);
+        userConnections.getOrDefault(alert.getKeycloak_username(), Set.of()).forEach(c -> c.enqueueAlert(id, alert));
+        adminConnections.forEach(c -> c.enqueueAlert(id, alert));
+    }
+
+    /**
+     * Sends a heartbeat to every stream with no event in flight.
+     */
+    @Scheduled(fixedDelayString = "${financeapp.stream.heartbeat-interval:15s}")
+    public void sendHeartbeats() {
+        userConnections.values().forEach(connections -> connections.forEach(Connection::heartbeat));
+        adminConnections.forEach(Connection::heartbeat);
+    }
+
+    /**
+     * Ends the open streams while the web server still runs, so clients reconnect to another instance.
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void closeStreams() {
+        List<Connection> connections = new ArrayList<>(adminConnections);
+        userConnections.values().forEach(connections::addAll);
+        connections.forEach(c -> c.emitter.complete());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sender.shutdown();
+    }
+
+    /**
+     * Helper method to queue the changes a reconnecting stream missed after its Last-Event-ID.
+     * Must be called while holding the lock of this service.
+     */
+    private void replay(Connection connection, String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return;
+        }
+
+        long after = parseEventId(lastEventId);
+        long oldest = replayBuffer.isEmpty() ? lastId + 1 : replayBuffer.peekFirst().id();
+        if (after < 0 || after > lastId || after + 1 < oldest) {
+            // Unknown how much was missed: every resource may have changed
+            connection.enqueue(lastId, Resource.values());
+            return;
+        }
+        for (Change change : replayBuffer) {
+            if (change.id() > after && connection.receives(change.owner())) {
+                if (change.alert() != null) {
+                    connection.enqueueAlert(change.id(), change.alert());
+                } else {
+                    connection.enqueue(change.id(), change.resources());
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to assign the next ID to a change and keep it for replay.
+     * Must be called while holding the lock of this service.
+     */
+    private long addChange(String owner, Resource[] resources, BudgetAlertDTO alert) {
+        long id = ++lastId;
+        replayBuffer.addLast(new Change(id, owner, resources, alert));
+        if (replayBuffer.size() > replaySize) {
+            replayBuffer.removeFirst();
+        }
+        return id;
+    }
+
+    /**
+     * Helper method to read the change ID of an event ID, or -1 if it was not issued by this instance.
+     */
+    private long parseEventId(String eventId) {
+        int separator = eventId.lastIndexOf('-');
+        if (separator < 0 || !eventId.substring(0, separator).equals(instanceId)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(eventId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Helper method to unregister a closed stream.
+     */
+    private void remove(Connection connection) {
+        if (!connection.close()) {
+            return;
+        }
+        if (connection.owner == null) {
+            adminConnections.remove(connection);
+        } else {
+            userConnections.computeIfPresent(connection.owner, (key, connections) -> {
+                connections.remove(connection);
+                return connections.isEmpty() ? null : connections;
+            });
+        }
+        connectionCount.decrementAndGet();
+    }
+
+    /**
+     * An open stream and the events waiting to be written to it.
+     */
+    private final class Connection {
+
+        private final String owner;
+
+        private final SseEmitter emitter;
+
+        // Newest change ID per resource and newest alert per budget ID not yet sent; guarded by this like the flags below
+        private final Map<Resource, Long> pending = new EnumMap<>(Resource.class);
+        private final Map<Long, Event> pendingAlerts = new HashMap<>();
+
+        private boolean reconnectDelaySent;
+
+        private boolean heartbeatDue;
+
+        // A virtual thread is writing to the stream
+        private boolean sending;
+
+        private boolean closed;
+
+        private Connection(String owner, SseEmitter emitter) {
+            this.owner = owner;
+            this.emitter = emitter;
+        }
+
+        /**
+         * Checks whether the changes of a user are sent to this stream.
+         */
+        private boolean receives(String changeOwner) {
+            return owner == null || changeOwner == null || owner.equals(changeOwner);
+        }
+
+        /**
+         * Sends the reconnect delay and the replayed changes.
+         */
+        private void start() {
+            synchronized (this) {
+                if (!startSending()) {
+                    return;
+                }
+            }
+            sender.execute(this::send);
+        }
+
+        /**
+         * Queues changes of resources, replacing pending events of the same resources.
+         */
+        private void enqueue(long id, Resource... resources) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                for (Resource resource : resources) {
+                    pending.merge(resource, id, Math::max);
+                }
+                if (!startSending()) {
+                    return;
+                }
+            }
+            sender.execute(this::send);
+        }
+
+        /**
+         * Queues a budget alert, replacing a pending alert of the same budget.
+         */
+        private void enqueueAlert(long id, BudgetAlertDTO alert) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                pendingAlerts.put(alert.getBudget_id(), new Event(id, null, alert));
+                if (!startSending()) {
+                    return;
+                }
+            }
+            sender.execute(this::send);
+        }
+
+        /**
+         * Queues a heartbeat, unless an event is being written anyway.
+         */
+        private void heartbeat() {
+            synchronized (this) {
+                if (closed || sending) {
+                    return;
+                }
+                heartbeatDue = true;
+                startSending();
+            }
+            sender.execute(this::send);
+        }
+
+        /**
+         * Marks the stream closed, so nothing more is queued.
+         *
+         * @return false if it was already closed.
+         */
+        private synchronized boolean close() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            pending.clear();
+            pendingAlerts.clear();
+            return true;
+        }
+
+        /**
+         * Helper method to claim the writing of this stream, must be called while holding its lock.
+         *
+         * @return false if a virtual thread is already writing and will pick up the queued events.
+         */
+        private boolean startSending() {
+            if (sending) {
+                return false;
+            }
+            sending = true;
+            return true;
+        }
+
+        /**
+         * Writes the pending events until none are left, on the sender thread.
+         */
+        private void send() {
+            while (true) {
+                List<Event> batch = new ArrayList<>();
+                boolean sendReconnectDelay;
+                boolean sendHeartbeat;
+                synchronized (this) {
+                    if (closed || (pending.isEmpty() && pendingAlerts.isEmpty() && !heartbeatDue && reconnectDelaySent)) {
+                        sending = false;
+                        return;
+                    }
+                    pending.forEach((resource, id) -> batch.add(new Event(id, resource, null)));
+                    batch.addAll(pendingAlerts.values());
+                    pending.clear();
+                    pendingAlerts.clear();
+                    sendReconnectDelay = !reconnectDelaySent;
+                    reconnectDelaySent = true;
+                    sendHeartbeat = heartbeatDue && batch.isEmpty();
+                    heartbeatDue = false;
+                }
+
+                try {
+                    if (sendReconnectDelay) {
+                        emitter.send(SseEmitter.event().reconnectTime(reconnectDelay.toMillis()));
+                    }
+                    if (sendHeartbeat) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    }
+                    // Oldest first, so the ID of the last event tells a reconnecting client where to resume
+                    batch.sort(Comparator.comparingLong(Event::id));
+                    for (Event event : batch) {
+                        SseEmitter.SseEventBuilder builder = SseEmitter.event().id(instanceId + "-" + event.id());
+                        if (event.alert() != null) {
+                            builder.name("budget-alert").data(event.alert(), MediaType.APPLICATION_JSON);
+                        } else {
+                            String name = event.resource().name().toLowerCase(Locale.ROOT);
+                            String eTag = resourceVersionService.getETag(event.resource(), owner);
+                            builder.name(name).data(new ChangeEventDTO(name, eTag), MediaType.APPLICATION_JSON);
+                        }
+                        emitter.send(builder);
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // The client went away or the stream was completed; the container completes the request
+                    remove(this);
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package ch.modul295.yannisstebler.financeapp.services;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Service class for the Idempotency-Key header of create endpoints.
+ * The first request with a key runs the operation and its successful response is kept for the configured time.
+ * Retries with the same key get that response without running the operation again, and duplicates that arrive while
+ * the first request is still running wait for its response.
+ *
+ * Keys are scoped to the user and the endpoint and held in memory, so they only deduplicate requests reaching
+ * the same instance.
+ */
+@Service
+public class IdempotencyService {
+
+    public static final String HEADER = "Idempotency-Key";
+
+    // Set on responses that were recorded for an earlier request with the same key
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    // Started requests by user, endpoint and key; an entry without a completed response is still running
+    private final ConcurrentMap<String, IdempotentRequest> requests;
+
+    private final Duration waitTimeout;
+
+    /**
+     * Constructor for IdempotencyService.
+     *
+     * @param timeToLive how long the response of a request is kept for retries.
+     * @param maximumSize the maximum number of kept requests.
+     * @param waitTimeout how long a duplicate waits for the running request before it is rejected.
+     */
+    public IdempotencyService(@Value("${financeapp.idempotency.time-to-live:24h}") Duration timeToLive,
+            @Value("${financeapp.idempotency.maximum-size:100000}") long maximumSize,
+            @Value("${financeapp.idempotency.wait-timeout:10s}") Duration waitTimeout) {
+        this.requests = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .<String, IdempotentRequest>build()
+                .asMap();
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * Runs a create operation at most once per idempotency key.
+     *
+     * @param username the user sending the request.
+     * @param endpoint the endpoint, e.g. "POST /api/transactions".
+     * @param key the value of the Idempotency-Key header, or null to run the operation unconditionally.
+     * @param request the request body, compared with the body of the first request with the same key.
+     * @param operation the operation, run only for the first request with the key.
+     * @return the response of the operation, the recorded response of the first request with the key,
+     *         HTTP status BAD_REQUEST if the key is invalid, UNPROCESSABLE_ENTITY if the key was used with a different body,
+     *         or CONFLICT if the first request is still running after the wait timeout.
+     */
+    public <T> ResponseEntity<T> execute(String username, String endpoint, String key, Object request,
+            Supplier<ResponseEntity<T>> operation) {
+        if (key == null) {
+            return operation.get();
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+
+        String requestKey = username + " " + endpoint + " " + key;
+        while (true) {
+            IdempotentRequest started = new IdempotentRequest(request, new CompletableFuture<>());
+            IdempotentRequest existing = requests.putIfAbsent(requestKey, started);
+            if (existing == null) {
+                return run(requestKey, started, operation);
+            }
+            if (!Objects.equals(existing.request(), request)) {
+                return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).build();
+            }
+
+            ResponseEntity<T> response = await(existing);
+            // Null if the first request failed and released the key, so this one runs the operation instead
+            if (response != null) {
+                return response;
+            }
+        }
+    }
+
+    /**
+     * Helper method to run the operation of the first request with a key and record its response.
+     * Failed requests release the key, so the client can retry them with the same key.
+     */
+    private <T> ResponseEntity<T> run(String requestKey, IdempotentRequest started, Supplier<ResponseEntity<T>> operation) {
+        ResponseEntity<T> response;
+        try {
+            response = operation.get();
+        } catch (RuntimeException | Error e) {
+            requests.remove(requestKey, started);
+            started.response().completeExceptionally(e);
+            throw e;
+        }
+
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            requests.remove(requestKey, started);
+        }
+        started.response().complete(response);
+        return response;
+    }
+
+    /**
+     * Helper method to wait for the response of the first request with a key.
+     * Returns null if that request failed with an exception.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> ResponseEntity<T> await(IdempotentRequest existing) {
+        ResponseEntity<?> response;
+        try {
+            response = existing.response().get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (ExecutionException e) {
+            return null;
+        }
+
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            // A concurrent duplicate shares the failure; the key was released for later retries
+            return (ResponseEntity<T>) response;
+        }
+        return (ResponseEntity<T>) ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .header(REPLAYED_HEADER, "true")
+                .body(response.getBody());
+    }
+
+    /**
+     * The body of the first request with a key and its response, completed once the operation has finished.
+     */
+    private record IdempotentRequest(Object request, CompletableFuture<ResponseEntity<?>> response) {
+    }
+}
@@ -0,0 +1,105 @@
+package ch.modul295.yannisstebler.financeapp.services;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import ch.modul295.yannisstebler.financeapp.model.KeycloakOutboxEntry;
+import ch.modul295.yannisstebler.financeapp.model.User;
+import ch.modul295.yannisstebler.financeapp.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pushes the Keycloak outbox to Keycloak in the background.
+ * Claimed entries are processed by at most financeapp.keycloak-outbox.concurrency threads; several instances
+ * of the application can dispatch at the same time because entries are claimed with row locks.
+ */
+@Service
+@ConditionalOnProperty(name = "financeapp.keycloak-outbox.enabled", havingValue = "true")
+public class KeycloakOutboxDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(KeycloakOutboxDispatcher.class);
+
+    @Autowired
+    private KeycloakOutboxService keycloakOutboxService;
+
+    @Autowired
+    private KeycloakService keycloakService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private final Semaphore slots;
+
+    private final ExecutorService executor;
+
+    public KeycloakOutboxDispatcher(@Value("${financeapp.keycloak-outbox.concurrency:4}") int concurrency) {
+        this.slots = new Semaphore(concurrency);
+        // Platform threads even when spring.threads.virtual.enabled is set: the admin client's TokenManager
+        // refreshes its token inside a synchronized method, which would pin a carrier thread during the HTTP call
+        this.executor = Executors.newFixedThreadPool(concurrency);
+    }
+
+    /**
+     * Claims as many due entries as there are free threads and processes them.
+     */
+    @Scheduled(fixedDelayString = "${financeapp.keycloak-outbox.poll-interval:1s}")
+    public void dispatch() {
+        int free = slots.availablePermits();
+        if (free == 0) {
+            return;
+        }
+
+        List<KeycloakOutboxEntry> entries = keycloakOutboxService.claimDueEntries(free);
+        for (KeycloakOutboxEntry entry : entries) {
+            // Cannot block: only this method acquires and it claimed no more entries than permits were free
+            slots.acquireUninterruptibly();
+            executor.execute(() -> {
+                try {
+                    process(entry);
+                } finally {
+                    slots.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Helper method to push one entry to Keycloak and record the outcome.
+     */
+    private void process(KeycloakOutboxEntry entry) {
+        try {
+            String keycloakId = null;
+            User user = userRepository.findById(entry.getUser_id())
+                    .orElseThrow(() -> new IllegalArgumentException("User not found"));
+            if (entry.getOperation() == KeycloakOutboxEntry.Operation.CREATE) {
+                keycloakId = keycloakService.createKeycloakUser(user.getId(), user.getUsername(), user.getPassword(),
+                        user.getEmail(), user.getFirstName(), user.getLastName(), "ROLE_user");
+            } else {
+                // The ID is stored once the account is created; without it only an account created for this user is deleted
+                keycloakService.deleteKeycloakUser(user.getKeycloakID(), user.getId(), entry.getUsername());
+            }
+            keycloakOutboxService.complete(entry, keycloakId);
+        } catch (IllegalArgumentException e) {
+            log.warn("Keycloak {} of user {} failed permanently: {}", entry.getOperation(), entry.getUsername(), e.getMessage());
+            keycloakOutboxService.fail(entry, e, true);
+        } catch (Exception e) {
+            log.warn("Keycloak {} of user {} failed, will retry: {}", entry.getOperation(), entry.getUsername(), e.getMessage());
+            keycloakOutboxService.fail(entry, e, false);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,141 @@
+package ch.modul295.yannisstebler.financeapp.services;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import ch.modul295.yannisstebler.financeapp.model.KeycloakOutboxEntry;
+import ch.modul295.yannisstebler.financeapp.model.User;
+import ch.modul295.yannisstebler.financeapp.repository.KeycloakOutboxRepository;
+import ch.modul295.yannisstebler.financeapp.repository.UserRepository;
+
+/**
+ * Service class for the Keycloak outbox (see KeycloakOutboxEntry).
+ */
+@Service
+public class KeycloakOutboxService {
+
+    @Autowired
+    private KeycloakOutboxRepository keycloakOutboxRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Value("${financeapp.keycloak-outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    // How long a claimed entry is hidden from other dispatchers
+    @Value("${financeapp.keycloak-outbox.lease:5m}")
+    private Duration lease;
+
+    // Delay before the first retry, doubled for every further attempt
+    @Value("${financeapp.keycloak-outbox.retry-delay:2s}")
+    private Duration retryDelay;
+
+    @Value("${financeapp.keycloak-outbox.max-retry-delay:10m}")
+    private Duration maxRetryDelay;
+
+    /**
+     * Adds a Keycloak change for a user to the outbox.
+     * Must run in the same database transaction as the change of the user row.
+     *
+     * @param user the user.
+     * @param operation the change to push to Keycloak.
+     * @return the created entry.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public KeycloakOutboxEntry enqueue(User user, KeycloakOutboxEntry.Operation operation) {
+        Date now = new Date();
+        KeycloakOutboxEntry entry = new KeycloakOutboxEntry();
+        entry.setUser_id(user.getId());
+        entry.setUsername(user.getUsername());
+        entry.setOperation(operation);
+        entry.setStatus(KeycloakOutboxEntry.Status.PENDING);
+        entry.setAttempts(0);
+        entry.setNext_attempt_at(now);
+        entry.setCreated_at(now);
+        return keycloakOutboxRepository.save(entry);
+    }
+
+    /**
+     * Claims up to limit due entries for this dispatcher by pushing their next attempt beyond the lease.
+     *
+     * @param limit the maximum number of entries.
+     * @return the claimed entries.
+     */
+    @Transactional
+    public List<KeycloakOutboxEntry> claimDueEntries(int limit) {
+        Date now = new Date();
+        List<KeycloakOutboxEntry> entries = keycloakOutboxRepository.findDueForUpdate(now, limit);
+        Date leaseEnd = new Date(now.getTime() + lease.toMillis());
+        entries.forEach(entry -> entry.setNext_attempt_at(leaseEnd));
+        return entries;
+    }
+
+    /**
+     * Marks an entry as done: removes it from the outbox and updates the provisioning state of the user.
+     *
+     * @param entry the entry.
+     * @param keycloakId the ID of the created Keycloak account, null for deletions.
+     */
+    @Transactional
+    public void complete(KeycloakOutboxEntry entry, String keycloakId) {
+        userRepository.findById(entry.getUser_id()).ifPresent(user -> {
+            if (entry.getOperation() == KeycloakOutboxEntry.Operation.CREATE) {
+                user.setKeycloakID(keycloakId);
+                // A deletion requested in the meantime is still queued behind this entry
+                if (user.getProvisioningState() == User.ProvisioningState.PENDING) {
+                    user.setProvisioningState(User.ProvisioningState.ACTIVE);
+                }
+            } else {
+                user.setProvisioningState(User.ProvisioningState.DELETED);
+            }
+        });
+        keycloakOutboxRepository.deleteById(entry.getId());
+    }
+
+    /**
+     * Records a failed attempt. The entry is retried with exponential backoff, unless the failure is permanent
+     * or the maximum number of attempts is reached; then the entry and the user are marked as failed.
+     *
+     * @param entry the entry.
+     * @param error the cause of the failure.
+     * @param permanent true if retrying cannot help.
+     */
+    @Transactional
+    public void fail(KeycloakOutboxEntry entry, Exception error, boolean permanent) {
+        KeycloakOutboxEntry current = keycloakOutboxRepository.findById(entry.getId()).orElse(null);
+        if (current == null) {
+            return;
+        }
+
+        current.setAttempts(current.getAttempts() + 1);
+        String message = String.valueOf(error.getMessage());
+        current.setLast_error(message.length() > 1000 ? message.substring(0, 1000) : message);
+        if (permanent || current.getAttempts() >= maxAttempts) {
+            current.setStatus(KeycloakOutboxEntry.Status.FAILED);
+            userRepository.findById(current.getUser_id()).ifPresent(user -> user.setProvisioningState(User.ProvisioningState.FAILED));
+            return;
+        }
+
+        long delay = retryDelay.toMillis() << Math.min(current.getAttempts() - 1, 20);
+        current.setNext_attempt_at(new Date(System.currentTimeMillis() + Math.min(delay, maxRetryDelay.toMillis())));
+    }
+
+    /**
+     * Retrieves the newest outbox entry of a user, e.g. to report why provisioning failed.
+     *
+     * @param userId the ID of the user.
+     * @return the entry, or empty if none is left.
+     */
+    public Optional<KeycloakOutboxEntry> getLatestEntry(Long userId) {
+        return keycloakOutboxRepository.findLatestByUserId(userId);
+    }
+}
@@ -2,10 +2,13 @@ package ch.modul295.yannisstebler.financeapp.services;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
+import org.keycloak.admin.client.CreatedResponseUtil;
 import org.keycloak.admin.client.Keycloak;
-import org.keycloak.admin.client.resource.ClientResource;
-import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.admin.client.resource.RoleMappingResource;
 import org.keycloak.admin.client.resource.UsersResource;
 import org.keycloak.representations.idm.CredentialRepresentation;
 import org.keycloak.representations.idm.RoleRepresentation;
@@ -14,10 +17,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.core.Response;
 
 /**
  * Service class for interacting with Keycloak to manage users and roles.
+ * A signup costs two admin calls (create with credentials, role mapping); role representations are cached
+ * and Keycloak user IDs are read from the users table instead of being searched.
  */
 @Service
 public class KeycloakService {
@@ -25,121 +33,198 @@ public class KeycloakService {
     @Autowired
     private Keycloak keycloak;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Value("${keycloak.realm}")
     private String realm; 
 
+    // Internal ID of the client, as used by the admin API (no lookup by clientId needed)
     @Value("${keycloak.clientLongId}")
     private String clientLongId; 
 
+    // Attribute on the Keycloak account holding the ID of the application user it was created for
+    private static final String USER_ID_ATTRIBUTE = "financeapp_user_id";
+
+    // Client roles by name, reloaded when Keycloak no longer knows a cached role
+    private final Map<String, RoleRepresentation> clientRoles = new ConcurrentHashMap<>();
+
     /**
      * Creates a new user in Keycloak with the specified details.
+     * Safe to retry: if a previous attempt already created the account for the same application user, it is completed instead.
      * 
+     * @param userId the ID of the application user, stored on the Keycloak account
      * @param username the username of the new user
      * @param password the password of the new user
      * @param email the email of the new user
      * @param firstName the first name of the new user
      * @param lastName the last name of the new user
      * @param role the role to assign to the user
-     * @return the user ID if successful, or null if there was an error
+     * @return the Keycloak user ID
+     * @throws IllegalArgumentException if the user data is rejected (400, 422) or the username belongs to another account
+     *         (retrying does not help)
+     * @throws RuntimeException if Keycloak could not be reached, failed or refused the admin client, e.g. with an expired
+     *         token (401), a missing permission (403), a timeout (408) or rate limiting (429) (retrying may help)
      */
-    public String createKeycloakUser(String username, String password, String email, String firstName, String lastName, String role) {
-        try {
-            // Get realm and resources for managing users and clients
-            RealmResource realmResource = keycloak.realm(realm);
-            UsersResource usersResource = realmResource.users();
-            ClientResource clientResource = realmResource.clients().get(clientLongId);
-            
-            // Validate and create user representation
-            if (username == null || username.isEmpty()) {
-                deleteKeycloakUser(username); 
-                throw new IllegalArgumentException("Username cannot be null or empty");
-            }
-            UserRepresentation user = new UserRepresentation();
-            user.setUsername(username);
-            user.setEmail(email);
-            user.setFirstName(firstName);
-            user.setLastName(lastName);
-            user.setEnabled(true);
-            user.setEmailVerified(true);
-
-            // Create user in Keycloak
-            Response response = usersResource.create(user);
-
-            if (response.getStatus() != 201) {
-                System.err.println("User creation failed: " + response.getStatusInfo());
-                response.close();
-                return null;
-            }
+    public String createKeycloakUser(Long userId, String username, String password, String email, String firstName, String lastName, String role) {
+        return timed("create_user", () -> createUser(userId, username, password, email, firstName, lastName, role));
+    }
+
+    /**
+     * Helper method to create the user, see createKeycloakUser.
+     */
+    private String createUser(Long userId, String username, String password, String email, String firstName, String lastName, String role) {
+        // Validate the user data
+        if (username == null || username.isEmpty()) {
+            throw new IllegalArgumentException("Username cannot be null or empty");
+        }
+        if (password == null || password.isEmpty()) {
+            throw new IllegalArgumentException("Password cannot be null or empty");
+        }
 
-            response.close();
+        UsersResource usersResource = keycloak.realm(realm).users();
+
+        // The password is sent with the user instead of a separate reset-password call
+        CredentialRepresentation credential = new CredentialRepresentation();
+        credential.setType(CredentialRepresentation.PASSWORD);
+        credential.setValue(password);
+        credential.setTemporary(false);
+
+        UserRepresentation user = new UserRepresentation();
+        user.setUsername(username);
+        user.setEmail(email);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        user.setEnabled(true);
+        user.setEmailVerified(true);
+        user.setCredentials(Collections.singletonList(credential));
+        user.singleAttribute(USER_ID_ATTRIBUTE, String.valueOf(userId));
+
+        // Create user in Keycloak, the ID is part of the Location header of the response
+        String keycloakUserId;
+        try (Response response = usersResource.create(user)) {
+            int status = response.getStatus();
+            if (status == 409) {
+                // A previous attempt created the account but failed afterwards
+                keycloakUserId = getOwnKeycloakUserId(username, userId);
+                usersResource.get(keycloakUserId).resetPassword(credential);
+            } else if (status == 400 || status == 422) {
+                // Only the user data itself is rejected for good; other client errors concern the admin client
+                throw new IllegalArgumentException("User creation rejected: " + response.getStatusInfo());
+            } else if (status != 201) {
+                throw new IllegalStateException("User creation failed: " + response.getStatusInfo());
+            } else {
+                keycloakUserId = CreatedResponseUtil.getCreatedId(response);
+            }
+        }
 
+        // Assign role to user
+        RoleMappingResource roleMappings = usersResource.get(keycloakUserId).roles();
+        try {
+            roleMappings.clientLevel(clientLongId).add(Collections.singletonList(getClientRole(role)));
+        } catch (NotFoundException e) {
+            // The role was recreated since it was cached
+            clientRoles.remove(role);
+            roleMappings.clientLevel(clientLongId).add(Collections.singletonList(getClientRole(role)));
+        }
 
-            String userId = getUserIdByUsername(username);
+        return keycloakUserId;
+    }
 
-            // Set password
-            if (password == null || password.isEmpty()) {
-                deleteKeycloakUser(username);
-                throw new IllegalArgumentException("Password cannot be null or empty");
-            }
-            CredentialRepresentation credential = new CredentialRepresentation();
-            credential.setType(CredentialRepresentation.PASSWORD);
-            credential.setValue(password);
-            credential.setTemporary(false);
-            usersResource.get(userId).resetPassword(credential);
-
-            // Assign role to user
-            RoleRepresentation roleRepresentation = clientResource.roles().get(role).toRepresentation();
-            usersResource.get(userId).roles().clientLevel(clientResource.toRepresentation().getId()).add(Collections.singletonList(roleRepresentation));
-
-            return userId;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+    /**
+     * Helper method to get a client role, loading it from Keycloak on a cache miss.
+     */
+    private RoleRepresentation getClientRole(String role) {
+        // Not computeIfAbsent: the HTTP call would run while holding a map bin lock
+        RoleRepresentation representation = clientRoles.get(role);
+        if (representation == null) {
+            representation = keycloak.realm(realm).clients().get(clientLongId).roles().get(role).toRepresentation();
+            clientRoles.put(role, representation);
         }
+        return representation;
     }
 
     /**
-     * Retrieves the user ID by username.
-     * 
-     * @param username the username of the user
-     * @return the user ID
-     * @throws RuntimeException if the user is not found
+     * Helper method to find the Keycloak account that a previous attempt created for the application user.
+     *
+     * @throws IllegalArgumentException if the username belongs to an account that was not created for this user
      */
-    public String getUserIdByUsername(String username) {
-        RealmResource realmResource = keycloak.realm(realm);
-        UsersResource usersResource = realmResource.users();
-        
-        List<UserRepresentation> users = usersResource.search(username, true);
-        
-        if (users == null || users.isEmpty()) {
-            throw new RuntimeException("User not found"); 
+    private String getOwnKeycloakUserId(String username, Long userId) {
+        List<UserRepresentation> users = keycloak.realm(realm).users().search(username, true);
+        if (users != null && !users.isEmpty() && isCreatedFor(users.get(0), userId)) {
+            return users.get(0).getId();
         }
+        throw new IllegalArgumentException("Username already exists in Keycloak");
+    }
 
-        return users.get(0).getId();
+    /**
+     * Helper method to check whether a Keycloak account was created for the application user (see USER_ID_ATTRIBUTE).
+     */
+    private boolean isCreatedFor(UserRepresentation account, Long userId) {
+        List<String> owners = account.getAttributes() == null ? null : account.getAttributes().get(USER_ID_ATTRIBUTE);
+        return owners != null && owners.contains(String.valueOf(userId));
     }
 
     /**
-     * Deletes a user from Keycloak by their username.
+     * Deletes a user from Keycloak.
+     * Without a stored ID the account is searched by username, but only deleted if it was created for the application
+     * user: the username may belong to another account, e.g. if creating this user's account failed because of it.
+     * Accounts created before the outbox (V7 migration) always have a stored ID.
      * 
+     * @param keycloakUserId the Keycloak user ID if known (one call), or null to search the user by username first
+     * @param userId the ID of the application user, compared with the attribute of a searched account
      * @param username the username of the user to be deleted
-     * @return true if the user was deleted, false if the user was not found
+     * @return true if the user was deleted, false if no account of the user was found
+     * @throws RuntimeException if Keycloak could not be reached or failed (retrying may help)
      */
-    public boolean deleteKeycloakUser(String username) {
-        try {
-            RealmResource realmResource = keycloak.realm(realm);
-            UsersResource usersResource = realmResource.users();
+    public boolean deleteKeycloakUser(String keycloakUserId, Long userId, String username) {
+        return timed("delete_user", () -> deleteUser(keycloakUserId, userId, username));
+    }
+
+    /**
+     * Helper method to delete the user, see deleteKeycloakUser.
+     */
+    private boolean deleteUser(String keycloakUserId, Long userId, String username) {
+        UsersResource usersResource = keycloak.realm(realm).users();
 
+        String accountId = keycloakUserId;
+        if (accountId == null) {
             List<UserRepresentation> users = usersResource.search(username, true);
-            if (users.isEmpty()) {
+            if (users.isEmpty() || !isCreatedFor(users.get(0), userId)) {
                 return false; 
             }
+            accountId = users.get(0).getId();
+        }
 
-            String userId = users.get(0).getId();
-            usersResource.delete(userId);
-            return true; 
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+        try (Response response = usersResource.delete(accountId)) {
+            if (response.getStatus() == 404) {
+                return false;
+            }
+            if (response.getStatus() != 204) {
+                throw new IllegalStateException("User deletion failed: " + response.getStatusInfo());
+            }
+        }
+        return true; 
+    }
+
+    /**
+     * Helper method to time a Keycloak operation, tagged with its outcome (success or the exception type).
+     */
+    private <T> T timed(String operation, Supplier<T> call) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "success";
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            outcome = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("financeapp.keycloak.operations")
+                    .description("Keycloak admin API operations")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
         }
     }
 }
@@ -0,0 +1,181 @@
+package ch.modul295.yannisstebler.financeapp.services;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Service class for the change versions of the list endpoints, used as their ETags.
+ * A version changes whenever a write to the resource of a user commits, so a request whose If-None-Match still
+ * carries the current ETag can be answered with 304 Not Modified without querying the database.
+ * The ETags are weak rather than strong: one version stands for every encoding of the list (JSON, Smile, CBOR, gzip),
+ * and Tomcat only compresses responses without a strong ETag.
+ *
+ * Versions are held in memory, so no request needs the database to be answered with 304, but an instance only sees
+ * the writes it committed itself. ETags therefore fail closed: each contains a random ID of this instance, so an ETag
+ * of another instance or of an earlier run never matches, and the period of financeapp.etags.max-age it was issued in,
+ * so a list changed through another instance is answered with 304 at most until that period ends.
+ * With several instances, a user's requests should still reach the same instance to get 304s reliably.
+ * The time of the last change is kept as well: a view that changed recently must be read from the primary database,
+ * since a lagging replica would return data older than the version in its ETag (see ReadYourWritesInterceptor).
+ * Change listeners are told about every change once its versions are bumped (see ChangeStreamService).
+ */
+@Service
+public class ResourceVersionService {
+
+    /**
+     * The resources served by list endpoints.
+     */
+    public enum Resource {
+        TRANSACTIONS, BUDGETS, CATEGORIES
+    }
+
+    /**
+     * Receives the changes of resources after their versions were bumped.
+     */
+    public interface ChangeListener {
+
+        /**
+         * Called after a change has committed, on the committing thread, so it must not block.
+         *
+         * @param owner the username whose resources changed, or null if the owner is not known.
+         * @param resources the changed resources.
+         */
+        void changed(String owner, Resource... resources);
+    }
+
+    // Distinguishes the ETags of this instance from those issued by other instances or an earlier run
+    private final String instanceId = Long.toString(new SecureRandom().nextLong() & Long.MAX_VALUE, 36);
+
+    // Upper bound for how long an ETag matches, and so for how long a write of another instance goes unnoticed
+    @Value("${financeapp.etags.max-age:30s}")
+    private Duration maxAge;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    // Version of the last change per user
+    private final Map<Resource, Map<String, Long>> userVersions = new EnumMap<>(Resource.class);
+
+    // Version of the last change of any user (the admin view)
+    private final Map<Resource, AtomicLong> latestVersions = new EnumMap<>(Resource.class);
+
+    // Version of the last change whose owner is unknown, which counts as a change for every user
+    private final Map<Resource, AtomicLong> minimumVersions = new EnumMap<>(Resource.class);
+
+    // Commit time (epoch millis) of the last change of any resource, per user, of any user and with unknown owner
+    private final Map<String, Long> userChangeTimes = new ConcurrentHashMap<>();
+    private final AtomicLong latestChangeTime = new AtomicLong();
+    private final AtomicLong minimumChangeTime = new AtomicLong();
+
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor for ResourceVersionService.
+     */
+    public ResourceVersionService() {
+        for (Resource resource : Resource.values()) {
+            userVersions.put(resource, new ConcurrentHashMap<>());
+            latestVersions.put(resource, new AtomicLong());
+            minimumVersions.put(resource, new AtomicLong());
+        }
+    }
+
+    /**
+     * Computes the weak ETag of a user's view of a resource.
+     * It must be computed before the data is read, so a concurrent write can only make the body newer than its ETag.
+     * The ETag changes at least every financeapp.etags.max-age, even if the view did not change on this instance.
+     *
+     * @param resource the resource.
+     * @param owner the username whose view is served, or null for the view of all users (admins).
+     * @return the ETag.
+     */
+    public String getETag(Resource resource, String owner) {
+        long version = owner == null
+                ? latestVersions.get(resource).get()
+                : Math.max(userVersions.get(resource).getOrDefault(owner, 0L), minimumVersions.get(resource).get());
+        String scope = owner == null ? "all" : Integer.toHexString(owner.hashCode());
+        long period = System.currentTimeMillis() / maxAge.toMillis();
+        return "W/\"" + instanceId + "-" + Long.toString(period, 36) + "-" + Long.toString(version, 36) + "-" + scope + "\"";
+    }
+
+    /**
+     * Returns when a write to any resource of a user's view last committed.
+     *
+     * @param owner the username whose view is served, or null for the view of all users (admins).
+     * @return the commit time in epoch milliseconds, or 0 if the view has not changed since startup.
+     */
+    public long getLastChangeTime(String owner) {
+        return owner == null
+                ? latestChangeTime.get()
+                : Math.max(userChangeTimes.getOrDefault(owner, 0L), minimumChangeTime.get());
+    }
+
+    /**
+     * Registers a listener that is told about every change from now on.
+     *
+     * @param listener the listener.
+     */
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Records a change of resources of a user once the current database transaction commits,
+     * or immediately if no transaction is active.
+     *
+     * @param owner the username whose resources changed, or null if the owner is not known (changes every user's version).
+     * @param resources the changed resources.
+     */
+    public void changed(String owner, Resource... resources) {
+        afterCommit(() -> {
+            for (Resource resource : resources) {
+                long version = sequence.incrementAndGet();
+                if (owner == null) {
+                    minimumVersions.get(resource).accumulateAndGet(version, Math::max);
+                } else {
+                    userVersions.get(resource).merge(owner, version, Math::max);
+                }
+                latestVersions.get(resource).accumulateAndGet(version, Math::max);
+            }
+
+            long now = System.currentTimeMillis();
+            if (owner == null) {
+                minimumChangeTime.accumulateAndGet(now, Math::max);
+            } else {
+                userChangeTimes.merge(owner, now, Math::max);
+            }
+            latestChangeTime.accumulateAndGet(now, Math::max);
+
+            for (ChangeListener listener : listeners) {
+                listener.changed(owner, resources);
+            }
+        });
+    }
+
+    /**
+     * Helper method to run an action after the current transaction has committed, or right away outside a transaction.
+     * Bumping a version before the commit would let a concurrent request tag the old data with the new version.
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
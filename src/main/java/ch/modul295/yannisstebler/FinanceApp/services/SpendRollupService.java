@@ -0,0 +1,165 @@
+package ch.modul295.yannisstebler.financeapp.services;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import ch.modul295.yannisstebler.financeapp.model.SpendRollup;
+import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import ch.modul295.yannisstebler.financeapp.repository.SpendRollupRepository;
+
+/**
+ * Service class for the monthly spend rollups (see the V5 migration).
+ * The record methods must run in the same database transaction as the transaction write they describe.
+ * They also pass the expense changes to the budget alerts (see BudgetAlertService).
+ */
+@Service
+public class SpendRollupService {
+
+    // Rollup key of transactions without a category
+    public static final long NO_CATEGORY = 0L;
+
+    @Autowired
+    private SpendRollupRepository spendRollupRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private BudgetAlertService budgetAlertService;
+
+    /**
+     * Adds created transactions to their rollups.
+     * Transactions sharing a rollup row are summed up first, so every row is written once.
+     *
+     * @param transactions the created transactions.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordCreated(Collection<Transaction> transactions) {
+        record(List.of(), transactions);
+    }
+
+    /**
+     * Removes deleted transactions from their rollups.
+     *
+     * @param transactions the deleted transactions.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordDeleted(Collection<Transaction> transactions) {
+        record(transactions, List.of());
+    }
+
+    /**
+     * Moves an updated transaction from the rollup of its old state to the rollup of its new state.
+     *
+     * @param before a copy of the transaction before the update.
+     * @param after the updated transaction.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordUpdated(Transaction before, Transaction after) {
+        record(List.of(before), List.of(after));
+    }
+
+    /**
+     * Helper method to remove and add the sums and counts of transactions in one pass over the rollups.
+     * Every row is written once, in key order, so concurrent writers lock the rows in the same order.
+     * The changes are sent as JDBC batches.
+     */
+    private void record(Collection<Transaction> removed, Collection<Transaction> added) {
+        Map<SpendRollup.Key, BigDecimal> totals = new LinkedHashMap<>();
+        Map<SpendRollup.Key, Long> counts = new LinkedHashMap<>();
+        for (Transaction transaction : removed) {
+            SpendRollup.Key key = keyOf(transaction);
+            totals.merge(key, transaction.getAmount().negate(), BigDecimal::add);
+            counts.merge(key, -1L, Long::sum);
+        }
+        for (Transaction transaction : added) {
+            SpendRollup.Key key = keyOf(transaction);
+            totals.merge(key, transaction.getAmount(), BigDecimal::add);
+            counts.merge(key, 1L, Long::sum);
+        }
+
+        Map<SpendRollup.Key, BigDecimal> changed = new LinkedHashMap<>();
+        totals.keySet().stream()
+                .filter(key -> totals.get(key).signum() != 0 || counts.get(key) != 0)
+                .sorted(this::compareKeys)
+                .forEach(key -> changed.put(key, totals.get(key)));
+        spendRollupRepository.addToRollups(changed, counts);
+        budgetAlertService.recordSpend(totals);
+    }
+
+    /**
+     * Helper method to compute the rollup row a transaction belongs to.
+     */
+    private SpendRollup.Key keyOf(Transaction transaction) {
+        Long categoryId = transaction.getCategory() == null || transaction.getCategory().getId() == null
+                ? NO_CATEGORY
+                : transaction.getCategory().getId();
+        return new SpendRollup.Key(transaction.getKeycloak_username(), periodOf(transaction), categoryId, transaction.getType());
+    }
+
+    /**
+     * Helper method to compute the first day of the month of a transaction, in the time zone the dates are stored in.
+     */
+    private LocalDate periodOf(Transaction transaction) {
+        return LocalDate.ofInstant(transaction.getDate().toInstant(), ZoneId.systemDefault()).withDayOfMonth(1);
+    }
+
+    /**
+     * Helper method to order rollup keys by their primary key columns.
+     */
+    private int compareKeys(SpendRollup.Key a, SpendRollup.Key b) {
+        int result = a.getKeycloak_username().compareTo(b.getKeycloak_username());
+        if (result == 0) {
+            result = a.getPeriod_start().compareTo(b.getPeriod_start());
+        }
+        if (result == 0) {
+            result = a.getCategory_id().compareTo(b.getCategory_id());
+        }
+        if (result == 0) {
+            result = a.getType().compareTo(b.getType());
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the rollup rows of a month.
+     *
+     * @param owner the username whose rollups are listed, or null for all users (admins).
+     * @param month the month.
+     * @return the rollup rows, one per category and type.
+     */
+    public List<SpendRollup> getRollups(String owner, YearMonth month) {
+        return spendRollupRepository.findByOwnerAndPeriod(owner, month.atDay(1));
+    }
+
+    /**
+     * Recomputes the rollups from scratch, e.g. after transactions were changed outside of the application.
+     * Transaction writes are blocked until the rebuild commits, so none of them can be counted twice or lost.
+     *
+     * @param owner the username whose rollups are rebuilt, or null to rebuild the rollups of all users.
+     * @return the number of rollup rows written.
+     */
+    @Transactional
+    public int rebuildRollups(String owner) {
+        jdbcTemplate.execute("LOCK TABLE transactions IN SHARE MODE");
+        budgetAlertService.reloadSpends(owner);
+        if (owner == null) {
+            spendRollupRepository.deleteAllRollups();
+            return spendRollupRepository.insertRollupsFromTransactions();
+        }
+        spendRollupRepository.deleteRollupsByOwner(owner);
+        return spendRollupRepository.insertRollupsFromTransactionsByOwner(owner);
+    }
+}
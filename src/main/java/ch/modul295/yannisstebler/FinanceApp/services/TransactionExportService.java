@@ -0,0 +1,133 @@
+package ch.modul295.yannisstebler.financeapp.services;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import ch.modul295.yannisstebler.financeapp.model.dto.TransactionExportDTO;
+import ch.modul295.yannisstebler.financeapp.repository.TransactionRepository;
+
+/**
+ * Service class for streaming transaction exports.
+ * Rows are read from a database cursor and written to the output one by one,
+ * so memory use does not depend on the number of exported transactions.
+ */
+@Service
+public class TransactionExportService {
+
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    private static final String CSV_HEADER = "id,keycloak_username,date,type,amount,category_id,category_name\n";
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Writes the transactions in [from, to) to the output stream, oldest first.
+     *
+     * @param owner the username whose transactions are exported, or null to export all transactions (admins)
+     * @param from the inclusive start of the date range
+     * @param to the exclusive end of the date range
+     * @param format the output format
+     * @param out the stream to write to; it is flushed but not closed
+     * @return the number of exported transactions
+     * @throws IOException if writing to the output stream fails
+     */
+    @Transactional(readOnly = true)
+    public long exportTransactions(String owner, Date from, Date to, Format format, OutputStream out) throws IOException {
+        try (Stream<TransactionExportDTO> rows = owner == null
+                ? transactionRepository.streamExport(from, to)
+                : transactionRepository.streamExportByOwner(owner, from, to)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+            long count = format == Format.CSV ? writeCsv(rows.iterator(), writer) : writeNdjson(rows.iterator(), writer);
+            writer.flush();
+            return count;
+        }
+    }
+
+    /**
+     * Writes one JSON object per line.
+     */
+    private long writeNdjson(Iterator<TransactionExportDTO> rows, Writer writer) throws IOException {
+        // Flushing after every row would send one network packet per transaction
+        ObjectWriter rowWriter = objectMapper.writerFor(TransactionExportDTO.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(writer);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // Rows are separated by the line breaks written below, not by Jackson's default space
+        generator.setRootValueSeparator(null);
+
+        long count = 0;
+        while (rows.hasNext()) {
+            rowWriter.writeValue(generator, rows.next());
+            generator.writeRaw('\n');
+            count++;
+        }
+        generator.flush();
+        return count;
+    }
+
+    /**
+     * Writes a header line followed by one CSV record per transaction.
+     */
+    private long writeCsv(Iterator<TransactionExportDTO> rows, Writer writer) throws IOException {
+        writer.write(CSV_HEADER);
+
+        long count = 0;
+        while (rows.hasNext()) {
+            TransactionExportDTO row = rows.next();
+            writer.write(String.valueOf(row.getId()));
+            writer.write(',');
+            writeCsvField(writer, row.getKeycloak_username());
+            writer.write(',');
+            writer.write(row.getDate().toInstant().toString());
+            writer.write(',');
+            writer.write(row.getType().name());
+            writer.write(',');
+            writer.write(row.getAmount().toPlainString());
+            writer.write(',');
+            writer.write(row.getCategory_id() == null ? "" : String.valueOf(row.getCategory_id()));
+            writer.write(',');
+            writeCsvField(writer, row.getCategory_name());
+            writer.write('\n');
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Writes a text field, quoting it if it contains a separator, quote or line break.
+     */
+    private void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
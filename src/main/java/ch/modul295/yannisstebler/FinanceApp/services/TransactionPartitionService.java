@@ -0,0 +1,108 @@
+package ch.modul295.yannisstebler.financeapp.services;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Service class for maintaining the monthly partitions of the transactions table (PostgreSQL only).
+ * The partitioning itself is set up by the V2 migration.
+ */
+@Service
+@ConditionalOnProperty(name = "financeapp.partitions.maintenance-enabled", havingValue = "true")
+public class TransactionPartitionService {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionPartitionService.class);
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyy_MM");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ResourceVersionService resourceVersionService;
+
+    @Value("${financeapp.partitions.months-ahead:3}")
+    private int monthsAhead;
+
+    // 0 keeps every month attached
+    @Value("${financeapp.partitions.retention-months:0}")
+    private int retentionMonths;
+
+    /**
+     * Creates the partitions for the current and the upcoming months and detaches months older than the retention.
+     * Runs at startup and then on the configured schedule.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${financeapp.partitions.cron:0 0 3 * * *}")
+    public void maintainPartitions() {
+        YearMonth current = YearMonth.now();
+        for (int i = 0; i <= monthsAhead; i++) {
+            createPartition(current.plusMonths(i));
+        }
+
+        if (retentionMonths > 0) {
+            YearMonth oldestKept = current.minusMonths(retentionMonths - 1L);
+            for (YearMonth month : getAttachedMonths()) {
+                if (month.isBefore(oldestKept)) {
+                    detachPartition(month);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the partition for a month if it does not exist yet.
+     *
+     * @param month the month of the partition.
+     * @return the name of the partition.
+     */
+    public String createPartition(YearMonth month) {
+        return jdbcTemplate.queryForObject("SELECT create_transactions_partition(?)", String.class, month.atDay(1));
+    }
+
+    /**
+     * Detaches the partition of a month from the transactions table.
+     * The detached table keeps its rows and can be archived or dropped independently.
+     *
+     * @param month the month of the partition.
+     * @return the name of the detached table, or null if no partition for this month was attached.
+     */
+    public String detachPartition(YearMonth month) {
+        String detached = jdbcTemplate.queryForObject("SELECT detach_transactions_partition(?)", String.class, month.atDay(1));
+        if (detached != null) {
+            log.info("Detached transactions partition {}", detached);
+            resourceVersionService.changed(null, ResourceVersionService.Resource.TRANSACTIONS);
+        }
+        return detached;
+    }
+
+    /**
+     * Lists the months that currently have an attached partition.
+     *
+     * @return the attached months, oldest first.
+     */
+    public List<YearMonth> getAttachedMonths() {
+        List<String> partitions = jdbcTemplate.queryForList(
+                "SELECT c.relname FROM pg_inherits i"
+                        + " JOIN pg_class c ON c.oid = i.inhrelid"
+                        + " JOIN pg_class p ON p.oid = i.inhparent"
+                        + " WHERE p.relname = 'transactions' AND c.relname ~ '^transactions_[0-9]{4}_[0-9]{2}$'"
+                        + " ORDER BY c.relname",
+                String.class);
+        return partitions.stream()
+                .map(name -> YearMonth.parse(name.substring("transactions_".length()), PARTITION_SUFFIX))
+                .toList();
+    }
+}
@@ -1,16 +1,31 @@
 package ch.modul295.yannisstebler.financeapp.services;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import ch.modul295.yannisstebler.financeapp.model.Category;
 import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import ch.modul295.yannisstebler.financeapp.model.dto.TransactionBatchResultDTO;
 import ch.modul295.yannisstebler.financeapp.model.dto.TransactionDTO;
-import ch.modul295.yannisstebler.financeapp.repository.CategoryRepository;
+import ch.modul295.yannisstebler.financeapp.model.dto.TransactionPageDTO;
+import ch.modul295.yannisstebler.financeapp.model.dto.TransactionPatchDTO;
 import ch.modul295.yannisstebler.financeapp.repository.TransactionRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 
 /**
  * Service class for managing transactions.
@@ -22,25 +37,99 @@ public class TransactionService {
     private TransactionRepository transactionRepository;
 
     @Autowired
-    private CategoryRepository categoryRepository;
+    private CategoryService categoryService;
+
+    @Autowired
+    private SpendRollupService spendRollupService;
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private ResourceVersionService resourceVersionService;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // Number of inserts sent per JDBC batch by createTransactions
+    @Value("${financeapp.transactions.batch-size:50}")
+    private int batchSize;
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 500;
 
     /**
-     * Retrieves all transactions from the repository.
+     * Retrieves one page of transactions, newest first, using keyset pagination on (date, id).
+     * The cost of a page does not depend on how deep into the history the cursor points.
      * 
-     * @return a list of all transactions
+     * @param owner the username whose transactions are listed, or null to list all transactions (admins)
+     * @param after the cursor returned with the previous page, or null for the first page
+     * @param limit the maximum number of transactions to return, or null for the default page size
+     * @return the page and the cursor for the next one
+     * @throws IllegalArgumentException if the cursor or limit is invalid
      */
-    public List<Transaction> getAllTransactions() {
-        return transactionRepository.findAll();
+    @Transactional(readOnly = true)
+    public TransactionPageDTO getTransactionsPage(String owner, String after, Integer limit) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        // Fetch one extra row to find out whether there is a next page
+        Limit fetchLimit = Limit.of(pageSize + 1);
+        List<Transaction> transactions;
+        if (after == null || after.isEmpty()) {
+            transactions = owner == null
+                    ? transactionRepository.findPage(fetchLimit)
+                    : transactionRepository.findPageByOwner(owner, fetchLimit);
+        } else {
+            String[] cursor = after.split(",");
+            if (cursor.length != 2) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            Date date;
+            Long id;
+            try {
+                date = new Date(Long.parseLong(cursor[0].trim()));
+                id = Long.valueOf(cursor[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+            transactions = owner == null
+                    ? transactionRepository.findPageAfter(date, id, fetchLimit)
+                    : transactionRepository.findPageByOwnerAfter(owner, date, id, fetchLimit);
+        }
+
+        if (transactions.size() <= pageSize) {
+            return new TransactionPageDTO(transactions, null);
+        }
+
+        List<Transaction> page = transactions.subList(0, pageSize);
+        Transaction last = page.get(pageSize - 1);
+        return new TransactionPageDTO(page, last.getDate().getTime() + "," + last.getId());
     }
 
     /**
-     * Retrieves a specific transaction by its ID.
+     * Retrieves a specific transaction by its ID if it belongs to the owner.
      * 
      * @param id the ID of the transaction to retrieve
+     * @param owner the username the transaction must belong to, or null for any owner (admins)
      * @return an Optional containing the transaction if found, otherwise empty
      */
-    public Optional<Transaction> getTransactionById(Long id) {
-        return transactionRepository.findById(id); 
+    @Transactional(readOnly = true)
+    public Optional<Transaction> getTransactionById(Long id, String owner) {
+        return transactionRepository.findByIdAndOwner(id, owner); 
+    }
+
+    /**
+     * Checks whether a transaction with the given ID exists, regardless of its owner.
+     * Only used to tell "not found" from "forbidden" after an owner-scoped operation matched nothing.
+     * 
+     * @param id the ID of the transaction
+     * @return true if the transaction exists
+     */
+    public boolean transactionExists(Long id) {
+        return transactionRepository.existsById(id);
     }
 
     /**
@@ -49,45 +138,232 @@ public class TransactionService {
      * @param username the username of the user creating the transaction
      * @param transactionDTO the data transfer object containing transaction details
      * @return the created transaction
+     * @throws IllegalArgumentException if the amount or type is missing, or the category does not exist or belongs to another user
      */
+    @Transactional
     public Transaction createTransaction(String username, TransactionDTO transactionDTO) {
+        requireAmountAndType(transactionDTO.getAmount(), transactionDTO.getType());
+        Category category = categoryService.getCachedCategory(transactionDTO.getCategory_id(), username)
+                .orElseThrow(() -> new IllegalArgumentException("Category not found"));
+        Transaction transaction = transactionRepository.save(toTransaction(username, transactionDTO, category, new Date()));
+        spendRollupService.recordCreated(List.of(transaction));
+        balanceService.recordCreated(List.of(transaction));
+        resourceVersionService.changed(username, ResourceVersionService.Resource.TRANSACTIONS);
+        return transaction;
+    }
+
+    /**
+     * Creates many transactions in one database transaction.
+     * All referenced categories are resolved from the category cache with at most one query, ids come from the pooled sequence
+     * and the inserts are flushed in JDBC batches of the configured size.
+     * Invalid items are rejected individually and do not prevent the others from being created.
+     * 
+     * @param username the username of the user creating the transactions
+     * @param transactionDTOs the data transfer objects containing transaction details
+     * @return one result per item, in request order
+     */
+    @Transactional
+    public List<TransactionBatchResultDTO> createTransactions(String username, List<TransactionDTO> transactionDTOs) {
+        Set<Long> categoryIds = transactionDTOs.stream()
+                .map(TransactionDTO::getCategory_id)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Long, Category> categories = categoryService.getCachedCategories(categoryIds, username);
+
+        Date now = new Date();
+        List<TransactionBatchResultDTO> results = new ArrayList<>(transactionDTOs.size());
+        List<Transaction> created = new ArrayList<>(transactionDTOs.size());
+        for (int i = 0; i < transactionDTOs.size(); i++) {
+            TransactionDTO transactionDTO = transactionDTOs.get(i);
+            String error = null;
+            if (transactionDTO == null) {
+                error = "Transaction is missing";
+            } else if (transactionDTO.getAmount() == null) {
+                error = "Amount is missing";
+            } else if (transactionDTO.getType() == null) {
+                error = "Type is missing";
+            } else if (!categories.containsKey(transactionDTO.getCategory_id())) {
+                error = "Category not found";
+            }
+            if (error != null) {
+                results.add(new TransactionBatchResultDTO(i, TransactionBatchResultDTO.Status.REJECTED, null, error));
+                continue;
+            }
+
+            Transaction transaction = toTransaction(username, transactionDTO, categories.get(transactionDTO.getCategory_id()), now);
+            entityManager.persist(transaction);
+            created.add(transaction);
+            results.add(new TransactionBatchResultDTO(i, TransactionBatchResultDTO.Status.CREATED, transaction.getId(), null));
+
+            // Send the pending inserts as one JDBC batch and keep the persistence context small
+            if (created.size() % batchSize == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        spendRollupService.recordCreated(created);
+        balanceService.recordCreated(created);
+        if (!created.isEmpty()) {
+            resourceVersionService.changed(username, ResourceVersionService.Resource.TRANSACTIONS);
+        }
+        return results;
+    }
+
+    /**
+     * Helper method to reject a transaction without amount or type, which every balance and rollup needs.
+     */
+    private static void requireAmountAndType(BigDecimal amount, Object type) {
+        if (amount == null) {
+            throw new IllegalArgumentException("Amount is missing");
+        }
+        if (type == null) {
+            throw new IllegalArgumentException("Type is missing");
+        }
+    }
+
+    /**
+     * Helper method to map a transaction DTO to a new transaction entity.
+     */
+    private Transaction toTransaction(String username, TransactionDTO transactionDTO, Category category, Date now) {
         Transaction transaction = new Transaction();
         transaction.setKeycloak_username(username); 
         transaction.setAmount(transactionDTO.getAmount());
         transaction.setType(Transaction.Type.valueOf(transactionDTO.getType().name())); 
-        transaction.setDate(new Date());
-        transaction.setCategory(categoryRepository.findById(transactionDTO.getCategory_id()).get());  
-        return transactionRepository.save(transaction);
+        transaction.setDate(transactionDTO.getDate() == null ? now : transactionDTO.getDate());
+        transaction.setCategory(category);  
+        return transaction;
     }
 
     /**
-     * Updates an existing transaction with new details.
+     * Updates an existing transaction with new details and moves its amount between the affected spend rollups.
+     * The owner of the transaction is never changed; a missing date is set to now, as when creating a transaction.
      * 
-     * @param username the username of the user updating the transaction
+     * @param owner the username the transaction must belong to, or null for any owner (admins)
      * @param id the ID of the transaction to update
      * @param transaction the transaction object containing the updated details
-     * @return the updated transaction
-     * @throws IllegalArgumentException if the transaction is not found
+     * @return true if the transaction was updated, false if no matching transaction exists
+     * @throws IllegalArgumentException if the amount or type is missing, or the category does not exist or belongs to another user than the transaction
      */
-    public Transaction updateTransaction(String username, Long id, Transaction transaction) {
-        if (transactionRepository.existsById(id)) {  
-            transaction.setKeycloak_username(username);  
-            transaction.setId(id);  
-            return transactionRepository.save(transaction); 
-        } else {
-            throw new IllegalArgumentException("Transaction not found");  
+    @Transactional
+    public boolean updateTransaction(String owner, Long id, Transaction transaction) {
+        requireAmountAndType(transaction.getAmount(), transaction.getType());
+        Optional<Transaction> existing = transactionRepository.findByIdAndOwnerForUpdate(id, owner);
+        if (existing.isEmpty()) {
+            return false;
         }
+
+        Transaction updated = existing.get();
+        Transaction before = copyOf(updated);
+        updated.setCategory(transaction.getCategory() == null || transaction.getCategory().getId() == null
+                ? null
+                : categoryService.getCachedCategory(transaction.getCategory().getId(), updated.getKeycloak_username())
+                        .orElseThrow(() -> new IllegalArgumentException("Category not found")));
+        updated.setAmount(transaction.getAmount());
+        updated.setType(transaction.getType());
+        updated.setDate(transaction.getDate() == null ? new Date() : transaction.getDate());
+        spendRollupService.recordUpdated(before, updated);
+        balanceService.recordUpdated(before, updated);
+        resourceVersionService.changed(updated.getKeycloak_username(), ResourceVersionService.Resource.TRANSACTIONS);
+        return true;
     }
 
     /**
-     * Deletes a transaction by its ID.
+     * Changes some fields of a transaction and moves its amount between the affected spend rollups.
+     * The row is not locked while the request runs: the version check of the UPDATE detects concurrent changes,
+     * and only the changed columns are written.
+     * 
+     * @param owner the username the transaction must belong to, or null for any owner (admins)
+     * @param id the ID of the transaction to change
+     * @param patch the fields to change; null fields keep their value
+     * @return the changed transaction with its new version, or empty if no matching transaction exists
+     * @throws OptimisticLockingFailureException if the transaction does not have the expected version or changed concurrently
+     * @throws IllegalArgumentException if the category does not exist or belongs to another user
+     */
+    @Transactional
+    public Optional<Transaction> patchTransaction(String owner, Long id, TransactionPatchDTO patch) {
+        Optional<Transaction> existing = transactionRepository.findByIdAndOwner(id, owner);
+        if (existing.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Transaction transaction = existing.get();
+        if (patch.getVersion() != null && !patch.getVersion().equals(transaction.getVersion())) {
+            throw new OptimisticLockingFailureException("Transaction " + id + " has version " + transaction.getVersion());
+        }
+
+        Category category = patch.getCategory_id() == null
+                ? transaction.getCategory()
+                : categoryService.getCachedCategory(patch.getCategory_id(), transaction.getKeycloak_username())
+                        .orElseThrow(() -> new IllegalArgumentException("Category not found"));
+        BigDecimal amount = patch.getAmount() == null ? transaction.getAmount() : patch.getAmount();
+        Transaction.Type type = patch.getType() == null ? transaction.getType() : Transaction.Type.valueOf(patch.getType().name());
+        Date date = patch.getDate() == null ? transaction.getDate() : patch.getDate();
+
+        // Unchanged transactions neither touch the rollups nor the row
+        boolean changed = !Objects.equals(categoryId(transaction.getCategory()), categoryId(category))
+                || amount.compareTo(transaction.getAmount()) != 0
+                || type != transaction.getType()
+                || date.getTime() != transaction.getDate().getTime();
+        if (!changed) {
+            return existing;
+        }
+
+        Transaction before = copyOf(transaction);
+        transaction.setCategory(category);
+        transaction.setAmount(amount);
+        transaction.setType(type);
+        transaction.setDate(date);
+        spendRollupService.recordUpdated(before, transaction);
+        balanceService.recordUpdated(before, transaction);
+
+        // Runs the UPDATE now, so the returned transaction carries its new version
+        transactionRepository.flush();
+        resourceVersionService.changed(transaction.getKeycloak_username(), ResourceVersionService.Resource.TRANSACTIONS);
+        return Optional.of(transaction);
+    }
+
+    /**
+     * Helper method to copy the fields of a transaction that the rollups and balances depend on, before it is changed.
+     * Old and new state are then applied in one pass per table, so an update locks rows in the same order as other writes.
+     */
+    private static Transaction copyOf(Transaction transaction) {
+        Transaction copy = new Transaction();
+        copy.setKeycloak_username(transaction.getKeycloak_username());
+        copy.setCategory(transaction.getCategory());
+        copy.setAmount(transaction.getAmount());
+        copy.setType(transaction.getType());
+        copy.setDate(transaction.getDate());
+        return copy;
+    }
+
+    /**
+     * Helper method to get the ID of a possibly missing category.
+     */
+    private static Long categoryId(Category category) {
+        return category == null ? null : category.getId();
+    }
+
+    /**
+     * Deletes a transaction by its ID and removes it from its spend rollup.
      * 
      * @param id the ID of the transaction to delete
-     * @return an Optional containing the deleted transaction, or empty if not found
+     * @param owner the username the transaction must belong to, or null for any owner (admins)
+     * @return true if the transaction was deleted, false if no matching transaction exists
      */
-    public Optional<Transaction> deleteTransaction(Long id) {
-        Optional<Transaction> deletedTransaction = transactionRepository.findById(id); 
-        transactionRepository.deleteById(id); 
-        return deletedTransaction;  
+    @Transactional
+    public boolean deleteTransaction(Long id, String owner) {
+        Optional<Transaction> existing = transactionRepository.findByIdAndOwnerForUpdate(id, owner);
+        if (existing.isEmpty()) {
+            return false;
+        }
+
+        spendRollupService.recordDeleted(List.of(existing.get()));
+        balanceService.recordDeleted(List.of(existing.get()));
+        transactionRepository.delete(existing.get());
+        resourceVersionService.changed(existing.get().getKeycloak_username(), ResourceVersionService.Resource.TRANSACTIONS);
+        return true;
     }
 }
@@ -4,15 +4,18 @@ import java.util.List;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.ResponseEntity;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import ch.modul295.yannisstebler.financeapp.model.KeycloakOutboxEntry;
 import ch.modul295.yannisstebler.financeapp.model.User;
+import ch.modul295.yannisstebler.financeapp.model.dto.ProvisioningStatusDTO;
 import ch.modul295.yannisstebler.financeapp.repository.UserRepository;
 import jakarta.validation.Valid;
 
 /**
- * Service class for managing users, including interaction with Keycloak for authentication.
+ * Service class for managing users, including their Keycloak accounts for authentication.
  */
 @Service
 public class UserService {
@@ -21,7 +24,7 @@ public class UserService {
     private final UserRepository userRepository; 
 
     @Autowired
-    private KeycloakService keycloakService;  
+    private KeycloakOutboxService keycloakOutboxService;
 
     /**
      * Constructs the UserService with the required dependencies.
@@ -37,54 +40,69 @@ public class UserService {
      * 
      * @return a list of all users
      */
+    @Transactional(readOnly = true)
     public List<User> getAllUsers() {
         return userRepository.findAll();
     }
 
     /**
-     * Retrieves a specific user by their ID.
+     * Retrieves a specific user by their ID if it is the owner's own account.
      * 
      * @param id the ID of the user to retrieve
+     * @param owner the username the account must belong to, or null for any account (admins)
      * @return an Optional containing the user if found, otherwise empty
      */
-    public Optional<User> getUserById(Long id) {
-        return userRepository.findById(id); 
+    @Transactional(readOnly = true)
+    public Optional<User> getUserById(Long id, String owner) {
+        return userRepository.findByIdAndOwner(id, owner); 
     }
 
     /**
-     * Creates a new user, including creation in Keycloak and saving to the database.
+     * Checks whether a user with the given ID exists.
+     * Only used to tell "not found" from "forbidden" after an owner-scoped operation matched nothing.
      * 
-     * @param user the user to be created
-     * @return a ResponseEntity containing the created user or an error message
+     * @param id the ID of the user
+     * @return true if the user exists
      */
-    public ResponseEntity<User> createUser(@Valid User user) {
-        // Create the user in Keycloak
-        String keycloakUserId = keycloakService.createKeycloakUser(
-            user.getUsername(),
-            user.getPassword(),
-            user.getEmail(),
-            user.getFirstName(),
-            user.getLastName(),
-            "ROLE_user"
-        );
-
-        // If Keycloak user creation failed
-        if (keycloakUserId == null) {
-            return ResponseEntity.status(500).body(null);
-        }
+    public boolean userExists(Long id) {
+        return userRepository.existsById(id);
+    }
 
-        // Set the Keycloak user ID and mark the user as active
-        user.setKeycloakID(keycloakUserId);
+    /**
+     * Creates a new user in the database and queues the creation of the Keycloak account.
+     * The account is created in the background (see KeycloakOutboxDispatcher), so this does not wait for Keycloak;
+     * the provisioning state of the user shows when the account is ready.
+     * 
+     * @param user the user to be created
+     * @return the created user, in the PENDING provisioning state
+     * @throws DataIntegrityViolationException if the username or email is already taken
+     */
+    @Transactional
+    public User createUser(@Valid User user) {
+        user.setId(null);
+        user.setKeycloakID(null);
         user.setActive(true);
+        user.setProvisioningState(User.ProvisioningState.PENDING);
 
-        // Save the user in the database
-        try {
-            User savedUser = userRepository.save(user);
-            return ResponseEntity.status(201).body(savedUser);
-        } catch (Exception e) {
-            // If saving user in the database fails
-            return ResponseEntity.status(500).body(null); 
-        }
+        User savedUser = userRepository.save(user);
+        keycloakOutboxService.enqueue(savedUser, KeycloakOutboxEntry.Operation.CREATE);
+        return savedUser;
+    }
+
+    /**
+     * Retrieves the provisioning state of a user's Keycloak account and, while it is not done, the last error.
+     * 
+     * @param id the ID of the user
+     * @param owner the username the account must belong to, or null for any account (admins)
+     * @return an Optional containing the status if the user was found, otherwise empty
+     */
+    public Optional<ProvisioningStatusDTO> getProvisioningStatus(Long id, String owner) {
+        return userRepository.findByIdAndOwner(id, owner).map(user -> {
+            Optional<KeycloakOutboxEntry> entry = keycloakOutboxService.getLatestEntry(user.getId());
+            return new ProvisioningStatusDTO(user.getId(), user.getProvisioningState(),
+                    entry.map(KeycloakOutboxEntry::getAttempts).orElse(0),
+                    entry.map(KeycloakOutboxEntry::getLast_error).orElse(null));
+        });
     }
 
     /**
@@ -96,8 +114,12 @@ public class UserService {
      * @throws IllegalArgumentException if the user is not found
      */
     public User updateUser(Long id, User user) {
-        if (userRepository.existsById(id)) {  
+        Optional<User> existing = userRepository.findById(id);
+        if (existing.isPresent()) {  
             user.setId(id);  
+            // Owned by the Keycloak provisioning
+            user.setKeycloakID(existing.get().getKeycloakID());
+            user.setProvisioningState(existing.get().getProvisioningState());
             User updatedUser = userRepository.save(user);
             return updatedUser;
         } else {
@@ -106,27 +128,34 @@ public class UserService {
     }
 
     /**
-     * Deletes a user, deactivating them in the database and removing them from Keycloak.
+     * Deletes a user: deactivates them in the database and queues the deletion of the Keycloak account, if one was created.
      * 
      * @param id the ID of the user to delete
-     * @return an Optional containing the deleted user, or empty if not found
-     * @throws IllegalArgumentException if the user is not found
+     * @param owner the username the account must belong to, or null for any account (admins)
+     * @return true if the user was deleted, false if no matching user exists
      */
-    public Optional<User> deleteUser(Long id) {
-        Optional<User> user = userRepository.findById(id); 
-
+    @Transactional
+    public boolean deleteUser(Long id, String owner) {
+        Optional<User> user = userRepository.findByIdAndOwner(id, owner);
         if (user.isEmpty()) {
-            throw new IllegalArgumentException("User not found");  
+            return false;
         }
 
-        // Delete the user from Keycloak
-        keycloakService.deleteKeycloakUser(user.get().getUsername());
-
-        // Deactivate the user in the database
+        // Deleting twice is a no-op
         User deletedUser = user.get();
-        deletedUser.setActive(false);
-        userRepository.save(deletedUser); 
+        if (deletedUser.getProvisioningState() == User.ProvisioningState.DELETING
+                || deletedUser.getProvisioningState() == User.ProvisioningState.DELETED) {
+            return true;
+        }
 
-        return user;  // Return the deleted user
+        deletedUser.setActive(false);
+        // Provisioning failed before an account was created: there is nothing to delete in Keycloak
+        if (deletedUser.getProvisioningState() == User.ProvisioningState.FAILED && deletedUser.getKeycloakID() == null) {
+            deletedUser.setProvisioningState(User.ProvisioningState.DELETED);
+            return true;
+        }
+        deletedUser.setProvisioningState(User.ProvisioningState.DELETING);
+        keycloakOutboxService.enqueue(deletedUser, KeycloakOutboxEntry.Operation.DELETE);
+        return true;
     }
 }
@@ -0,0 +1,37 @@
+-- Baseline: the schema Hibernate used to generate with ddl-auto=update.
+-- Databases created that way are baselined at this version (spring.flyway.baseline-on-migrate)
+-- and only receive the migrations after it.
+
+CREATE TABLE catergories (
+    id                bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    name              varchar(255) NOT NULL,
+    keycloak_username varchar(255) NOT NULL,
+    description       varchar(255)
+);
+
+CREATE TABLE budgets (
+    id                bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    keycloak_username varchar(255) NOT NULL,
+    category          bigint REFERENCES catergories (id),
+    limit_amount      numeric(38, 2) NOT NULL
+);
+
+CREATE TABLE transactions (
+    id                bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    keycloak_username varchar(255) NOT NULL,
+    category          bigint REFERENCES catergories (id),
+    amount            numeric(38, 2) NOT NULL,
+    type              smallint NOT NULL CHECK (type BETWEEN 0 AND 1),
+    date              timestamp(6) NOT NULL
+);
+
+CREATE TABLE users (
+    id         bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    first_name varchar(255) NOT NULL,
+    last_name  varchar(255) NOT NULL,
+    username   varchar(255) NOT NULL UNIQUE,
+    password   varchar(255) NOT NULL,
+    keycloakid varchar(255) NOT NULL,
+    email      varchar(255) UNIQUE,
+    active     boolean NOT NULL
+);
@@ -0,0 +1,78 @@
+-- Range-partition transactions by month on the transaction date.
+-- Partitions are named transactions_YYYY_MM; rows outside every monthly partition land in transactions_default.
+-- TransactionPartitionService keeps partitions created ahead of time and can detach old months.
+
+CREATE FUNCTION create_transactions_partition(month_start date) RETURNS text
+LANGUAGE plpgsql AS $$
+DECLARE
+    from_date      date := date_trunc('month', month_start)::date;
+    partition_name text := 'transactions_' || to_char(from_date, 'YYYY_MM');
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF transactions FOR VALUES FROM (%L) TO (%L)',
+                   partition_name, from_date, (from_date + interval '1 month')::date);
+    RETURN partition_name;
+END;
+$$;
+
+-- Detaches a month from transactions. The detached table keeps its rows and can be archived or dropped.
+CREATE FUNCTION detach_transactions_partition(month_start date) RETURNS text
+LANGUAGE plpgsql AS $$
+DECLARE
+    partition_name text := 'transactions_' || to_char(date_trunc('month', month_start), 'YYYY_MM');
+BEGIN
+    IF EXISTS (SELECT 1
+               FROM pg_inherits i
+               JOIN pg_class c ON c.oid = i.inhrelid
+               JOIN pg_class p ON p.oid = i.inhparent
+               WHERE p.relname = 'transactions' AND c.relname = partition_name) THEN
+        EXECUTE format('ALTER TABLE transactions DETACH PARTITION %I', partition_name);
+        RETURN partition_name;
+    END IF;
+    RETURN NULL;
+END;
+$$;
+
+-- Move the existing table aside. The primary key of a partitioned table has to include the partition key,
+-- and identity columns cannot be used on partitioned tables, so id becomes a plain sequence default.
+ALTER TABLE transactions RENAME TO transactions_unpartitioned;
+ALTER INDEX IF EXISTS transactions_pkey RENAME TO transactions_unpartitioned_pkey;
+ALTER TABLE transactions_unpartitioned ALTER COLUMN id DROP IDENTITY IF EXISTS;
+
+CREATE SEQUENCE transactions_id_seq;
+
+CREATE TABLE transactions (
+    id                bigint NOT NULL DEFAULT nextval('transactions_id_seq'),
+    keycloak_username varchar(255) NOT NULL,
+    category          bigint REFERENCES catergories (id),
+    amount            numeric(38, 2) NOT NULL,
+    type              smallint NOT NULL CHECK (type BETWEEN 0 AND 1),
+    date              timestamp(6) NOT NULL,
+    PRIMARY KEY (id, date)
+) PARTITION BY RANGE (date);
+
+ALTER SEQUENCE transactions_id_seq OWNED BY transactions.id;
+
+CREATE TABLE transactions_default PARTITION OF transactions DEFAULT;
+
+-- One partition per month of existing data, plus the next three months
+DO $$
+DECLARE
+    month_start date;
+BEGIN
+    FOR month_start IN
+        SELECT generate_series(date_trunc('month', COALESCE((SELECT min(date) FROM transactions_unpartitioned), now())),
+                               date_trunc('month', now()) + interval '3 months',
+                               interval '1 month')::date
+    LOOP
+        PERFORM create_transactions_partition(month_start);
+    END LOOP;
+END;
+$$;
+
+INSERT INTO transactions (id, keycloak_username, category, amount, type, date)
+SELECT id, keycloak_username, category, amount, type, date
+FROM transactions_unpartitioned;
+
+SELECT setval('transactions_id_seq', COALESCE((SELECT max(id) FROM transactions), 0) + 1, false);
+
+DROP TABLE transactions_unpartitioned;
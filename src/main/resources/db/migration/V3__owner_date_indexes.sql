@@ -0,0 +1,12 @@
+-- Owner-scoped access paths. Transactions are paged and exported with
+-- WHERE keycloak_username = ? ORDER BY date, id; the remaining columns are included
+-- so that these range scans can be answered from the index alone.
+-- The index is created on the partitioned table and therefore on every (future) partition.
+CREATE INDEX transactions_owner_date_id_idx ON transactions (keycloak_username, date, id)
+    INCLUDE (amount, type, category);
+
+-- Budgets and categories have no date column, so they are indexed by owner and id.
+CREATE INDEX budgets_owner_id_idx ON budgets (keycloak_username, id)
+    INCLUDE (category, limit_amount);
+
+CREATE INDEX catergories_owner_id_idx ON catergories (keycloak_username, id);
@@ -0,0 +1,6 @@
+-- Transaction ids are allocated by Hibernate's pooled optimizer in blocks of 50 (allocationSize),
+-- which keeps insert batching possible. Each nextval reserves the block (value - 49 .. value),
+-- so the sequence restarts one block above the highest existing id.
+ALTER SEQUENCE transactions_id_seq INCREMENT BY 50;
+
+SELECT setval('transactions_id_seq', GREATEST(COALESCE((SELECT max(id) FROM transactions), 0), 1), true);
@@ -0,0 +1,17 @@
+-- Monthly totals per user, category and type, kept up to date by the transaction writes.
+-- Budget utilisation is read from here instead of aggregating the transactions.
+-- Transactions without a category are rolled up under category_id 0.
+CREATE TABLE spend_rollups (
+    keycloak_username varchar(255)   NOT NULL,
+    period_start      date           NOT NULL,
+    category_id       bigint         NOT NULL,
+    type              smallint       NOT NULL CHECK (type BETWEEN 0 AND 1),
+    total             numeric(38, 2) NOT NULL,
+    transaction_count bigint         NOT NULL,
+    PRIMARY KEY (keycloak_username, period_start, category_id, type)
+);
+
+INSERT INTO spend_rollups (keycloak_username, period_start, category_id, type, total, transaction_count)
+SELECT keycloak_username, date_trunc('month', date)::date, COALESCE(category, 0), type, sum(amount), count(*)
+FROM transactions
+GROUP BY 1, 2, 3, 4;
@@ -0,0 +1,27 @@
+-- Per-user Fenwick trees over the daily net amounts (incomes minus expenses) of the transactions,
+-- so the balance on any day is the sum of at most 17 nodes.
+-- Day 1 is 1900-01-01 and the trees have 2^17 = 131072 days; earlier and later transactions
+-- are counted on the first and last day. Node i holds the sum of the days (i - lowbit(i), i].
+CREATE TABLE balance_index (
+    keycloak_username varchar(255)   NOT NULL,
+    node              integer        NOT NULL CHECK (node BETWEEN 1 AND 131072),
+    amount            numeric(38, 2) NOT NULL,
+    PRIMARY KEY (keycloak_username, node)
+);
+
+WITH RECURSIVE daily AS (
+    SELECT keycloak_username,
+           GREATEST(1, LEAST(131072, (date::date - DATE '1900-01-01') + 1)) AS node,
+           sum(CASE WHEN type = 0 THEN amount ELSE -amount END) AS amount
+    FROM transactions
+    GROUP BY 1, 2
+), nodes AS (
+    SELECT keycloak_username, node, amount FROM daily
+    UNION ALL
+    SELECT keycloak_username, node + (node & -node), amount FROM nodes
+    WHERE node + (node & -node) <= 131072
+)
+INSERT INTO balance_index (keycloak_username, node, amount)
+SELECT keycloak_username, node, sum(amount)
+FROM nodes
+GROUP BY 1, 2;
@@ -0,0 +1,24 @@
+-- Keycloak accounts are created and deleted asynchronously through an outbox.
+-- provisioning_state: 0 PENDING, 1 ACTIVE, 2 FAILED, 3 DELETING, 4 DELETED (User.ProvisioningState).
+ALTER TABLE users ALTER COLUMN keycloakid DROP NOT NULL;
+
+ALTER TABLE users ADD COLUMN provisioning_state smallint NOT NULL DEFAULT 1
+    CHECK (provisioning_state BETWEEN 0 AND 4);
+UPDATE users SET provisioning_state = 4 WHERE NOT active;
+ALTER TABLE users ALTER COLUMN provisioning_state DROP DEFAULT;
+
+-- operation: 0 CREATE, 1 DELETE; status: 0 PENDING, 1 FAILED
+CREATE TABLE keycloak_outbox (
+    id              bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    user_id         bigint        NOT NULL REFERENCES users (id),
+    username        varchar(255)  NOT NULL,
+    operation       smallint      NOT NULL CHECK (operation BETWEEN 0 AND 1),
+    status          smallint      NOT NULL CHECK (status BETWEEN 0 AND 1),
+    attempts        integer       NOT NULL,
+    next_attempt_at timestamp(6)  NOT NULL,
+    last_error      varchar(1000),
+    created_at      timestamp(6)  NOT NULL
+);
+
+CREATE INDEX keycloak_outbox_due_idx ON keycloak_outbox (next_attempt_at) WHERE status = 0;
+CREATE INDEX keycloak_outbox_user_idx ON keycloak_outbox (user_id, id);
@@ -0,0 +1,6 @@
+-- Version columns for optimistic locking (@Version) of transactions, budgets and categories.
+-- With a constant default PostgreSQL only records the column in the catalog, existing rows are not rewritten.
+-- Added to the partitioned transactions table, the column also reaches every partition.
+ALTER TABLE transactions ADD COLUMN version bigint NOT NULL DEFAULT 0;
+ALTER TABLE budgets ADD COLUMN version bigint NOT NULL DEFAULT 0;
+ALTER TABLE catergories ADD COLUMN version bigint NOT NULL DEFAULT 0;
@@ -0,0 +1,123 @@
+package ch.modul295.yannisstebler.FinanceApp.perf;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUser;
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUserArgumentResolver;
+import ch.modul295.yannisstebler.financeapp.security.AuthenticationRoleConverter;
+
+/**
+ * Per-request authentication work: converting the validated JWT and resolving the AuthenticatedUser
+ * (including the admin check) that the controllers receive.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AuthenticationBenchmarks {
+
+    private static final String APP_NAME = "financeapp";
+
+    private AuthenticationRoleConverter converter;
+    private AuthenticatedUserArgumentResolver resolver;
+    private Jwt jwt;
+    private AbstractAuthenticationToken convertedToken;
+    private JwtAuthenticationToken plainToken;
+
+    // Gives every token of convertMiss its own jti
+    private final AtomicLong tokenCounter = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        converter = new AuthenticationRoleConverter(APP_NAME, 10000);
+        resolver = new AuthenticatedUserArgumentResolver();
+        jwt = jwt("benchmark-token");
+        convertedToken = converter.convert(jwt);
+        plainToken = new JwtAuthenticationToken(jwt, List.of(
+                new SimpleGrantedAuthority("ROLE_offline_access"),
+                new SimpleGrantedAuthority("ROLE_uma_authorization"),
+                new SimpleGrantedAuthority("ROLE_user"),
+                new SimpleGrantedAuthority("ROLE_admin")));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    /**
+     * Helper method to build a token shaped like the ones Keycloak issues for this application.
+     */
+    private static Jwt jwt(String id) {
+        Instant now = Instant.now();
+        return Jwt.withTokenValue("token-" + id)
+                .header("alg", "RS256")
+                .jti(id)
+                .subject("6f1c1f0e-0d7a-4d0c-9a57-2f4f3f1b0c11")
+                .issuedAt(now)
+                .expiresAt(now.plusSeconds(3600))
+                .claim("preferred_username", "benchmark")
+                .claim("roles", List.of("offline_access", "uma_authorization"))
+                .claim("resource_access", Map.of(APP_NAME, Map.of("roles", List.of("ROLE_user", "ROLE_admin"))))
+                .build();
+    }
+
+    /**
+     * Conversion of a token that has been seen before (every request after the first one of a session).
+     */
+    @Benchmark
+    public AbstractAuthenticationToken convertHit() {
+        return converter.convert(jwt);
+    }
+
+    /**
+     * Conversion of a token that has not been seen before.
+     */
+    @Benchmark
+    public AbstractAuthenticationToken convertMiss() {
+        return converter.convert(jwt("benchmark-" + tokenCounter.incrementAndGet()));
+    }
+
+    /**
+     * Resolving the controller's AuthenticatedUser after a conversion (the admin flag is precomputed).
+     */
+    @Benchmark
+    public AuthenticatedUser resolveConvertedUser() {
+        SecurityContextHolder.getContext().setAuthentication(convertedToken);
+        return resolver.resolveArgument(null, null, null, null);
+    }
+
+    /**
+     * Resolving the AuthenticatedUser from a plain JwtAuthenticationToken, which scans the authorities for the admin role
+     * like the controllers did on every request before the conversion was cached.
+     */
+    @Benchmark
+    public AuthenticatedUser resolvePlainUser() {
+        SecurityContextHolder.getContext().setAuthentication(plainToken);
+        return resolver.resolveArgument(null, null, null, null);
+    }
+}
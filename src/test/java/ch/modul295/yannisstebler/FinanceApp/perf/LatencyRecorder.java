@@ -0,0 +1,69 @@
+package ch.modul295.yannisstebler.FinanceApp.perf;
+
+import java.util.Arrays;
+
+/**
+ * Latencies and errors recorded by one load generator thread, merged into a single recorder at the end of a run.
+ * Not thread-safe.
+ */
+public class LatencyRecorder {
+
+    private long[] latencies = new long[1024];
+    private int count;
+    private long errors;
+
+    /**
+     * Records one request.
+     *
+     * @param latencyNanos the time from sending the request to receiving the response
+     * @param ok false if the request failed or was answered with an unexpected status
+     */
+    public void record(long latencyNanos, boolean ok) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+        if (!ok) {
+            errors++;
+        }
+    }
+
+    /**
+     * Adds the requests recorded by another recorder.
+     */
+    public void merge(LatencyRecorder other) {
+        if (count + other.count > latencies.length) {
+            latencies = Arrays.copyOf(latencies, count + other.count);
+        }
+        System.arraycopy(other.latencies, 0, latencies, count, other.count);
+        count += other.count;
+        errors += other.errors;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public long errors() {
+        return errors;
+    }
+
+    /**
+     * Computes latency percentiles (nearest rank) of the recorded requests.
+     *
+     * @param percentiles the percentiles, e.g. 0.99
+     * @return the latencies in nanoseconds, in the order of the arguments, 0 if nothing was recorded
+     */
+    public long[] percentiles(double... percentiles) {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        long[] result = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            if (count > 0) {
+                int index = (int) Math.ceil(percentiles[i] * count) - 1;
+                result[i] = sorted[Math.max(index, 0)];
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,93 @@
+package ch.modul295.yannisstebler.FinanceApp.perf;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import ch.modul295.yannisstebler.financeapp.FinanceAppApplication;
+
+/**
+ * Self-contained end-to-end load test: boots the application against an in-memory H2 database, a stub Keycloak
+ * and a locally generated signing key, then replays mixed traffic with the MixedTrafficDriver and reports throughput
+ * and latency percentiles per operation.
+ *
+ * <pre>
+ * mvn -Ploadtest test-compile exec:java -Dload.concurrency=200 -Dload.duration-seconds=60
+ * </pre>
+ *
+ * System properties (defaults in brackets): load.concurrency [100], load.warmup-seconds [15], load.duration-seconds [60],
+ * load.output [target/perf/loadtest.csv]. Application properties can be overridden the same way, e.g.
+ * -Dspring.threads.virtual.enabled=true. Program arguments are passed on as application arguments, e.g. read replica
+ * routing runs against the same H2 database with --financeapp.datasource.replica-urls=&lt;the H2 URL below&gt;
+ * --financeapp.datasource.replica-lag-query="SELECT 0".
+ */
+public class LoadTest {
+
+    private static final String ISSUER = "http://localhost/realms/loadtest";
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = Integer.getInteger("load.concurrency", 100);
+        Duration warmup = Duration.ofSeconds(Integer.getInteger("load.warmup-seconds", 15));
+        Duration duration = Duration.ofSeconds(Integer.getInteger("load.duration-seconds", 60));
+        Path output = Path.of(System.getProperty("load.output", "target/perf/loadtest.csv"));
+
+        Path jwksFile = Files.createTempFile("loadtest-jwks", ".json");
+        jwksFile.toFile().deleteOnExit();
+        TokenMinter tokenMinter = new TokenMinter(ISSUER, "financeapp");
+        tokenMinter.writeJwkSet(jwksFile);
+
+        // Devtools would restart the application in a second class loader
+        System.setProperty("spring.devtools.restart.enabled", "false");
+
+        // Command line arguments, so they take precedence over application.properties
+        List<String> properties = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--management.server.port=" + System.getProperty("management.server.port", "0"),
+                "--spring.application.name=financeapp",
+                "--spring.datasource.url=jdbc:h2:mem:loadtest;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                // H2 in PostgreSQL mode runs the native queries written for PostgreSQL
+                "--spring.jpa.database-platform=" + LoadTestDialect.class.getName(),
+                "--spring.jpa.hibernate.ddl-auto=create",
+                "--spring.jpa.show-sql=false",
+                "--spring.flyway.enabled=false",
+                "--financeapp.partitions.maintenance-enabled=false",
+                "--financeapp.keycloak.enabled=false",
+                "--financeapp.keycloak-outbox.poll-interval=100ms",
+                "--financeapp.jwt.jwks-file=" + jwksFile,
+                "--financeapp.jwt.jwks-uri=",
+                "--spring.security.oauth2.resourceserver.jwt.issuer-uri=" + ISSUER,
+                "--keycloak.realm=loadtest",
+                "--logging.level.root=WARN"));
+        properties.addAll(Arrays.asList(args));
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(FinanceAppApplication.class, LoadTestConfig.class)
+                .run(properties.toArray(String[]::new))) {
+            String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            MixedTrafficDriver driver = new MixedTrafficDriver(baseUrl, tokenMinter);
+
+            System.out.println("Warming up for " + warmup.toSeconds() + "s with " + concurrency + " clients");
+            driver.run(concurrency, warmup);
+
+            System.out.println("Measuring for " + duration.toSeconds() + "s with " + concurrency + " clients");
+            Map<MixedTrafficDriver.Operation, LatencyRecorder> result = driver.run(concurrency, duration);
+
+            List<String> rows = MixedTrafficDriver.toCsv(result, duration);
+            rows.forEach(System.out::println);
+            if (output.getParent() != null) {
+                Files.createDirectories(output.getParent());
+            }
+            Files.write(output, rows);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,80 @@
+package ch.modul295.yannisstebler.FinanceApp.perf;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.net.URI;
+import java.util.List;
+import java.util.UUID;
+
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.ClientResource;
+import org.keycloak.admin.client.resource.ClientsResource;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.admin.client.resource.RoleMappingResource;
+import org.keycloak.admin.client.resource.RoleResource;
+import org.keycloak.admin.client.resource.RoleScopeResource;
+import org.keycloak.admin.client.resource.RolesResource;
+import org.keycloak.admin.client.resource.UserResource;
+import org.keycloak.admin.client.resource.UsersResource;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Beans replacing external systems in the load-test application. Used together with financeapp.keycloak.enabled=false.
+ */
+@Configuration
+public class LoadTestConfig {
+
+    /**
+     * A Keycloak admin client that accepts every user creation, role mapping and deletion without any network call.
+     * The mocks are stub-only, so they do not record the invocations of a long load test.
+     */
+    @Bean
+    public Keycloak keycloak() {
+        RoleRepresentation role = new RoleRepresentation("ROLE_user", null, false);
+        role.setId(UUID.randomUUID().toString());
+        RoleResource roleResource = stub(RoleResource.class);
+        when(roleResource.toRepresentation()).thenReturn(role);
+        RolesResource rolesResource = stub(RolesResource.class);
+        when(rolesResource.get(anyString())).thenReturn(roleResource);
+        ClientResource clientResource = stub(ClientResource.class);
+        when(clientResource.roles()).thenReturn(rolesResource);
+        ClientsResource clientsResource = stub(ClientsResource.class);
+        when(clientsResource.get(anyString())).thenReturn(clientResource);
+
+        RoleMappingResource roleMappingResource = stub(RoleMappingResource.class);
+        when(roleMappingResource.clientLevel(anyString())).thenReturn(stub(RoleScopeResource.class));
+        UserResource userResource = stub(UserResource.class);
+        when(userResource.roles()).thenReturn(roleMappingResource);
+
+        UsersResource usersResource = stub(UsersResource.class);
+        when(usersResource.create(any())).thenAnswer(invocation ->
+                Response.created(URI.create("http://keycloak.invalid/admin/realms/loadtest/users/" + UUID.randomUUID())).build());
+        when(usersResource.get(anyString())).thenReturn(userResource);
+        when(usersResource.delete(anyString())).thenAnswer(invocation -> Response.noContent().build());
+        when(usersResource.search(anyString(), anyBoolean())).thenReturn(List.of());
+
+        RealmResource realmResource = stub(RealmResource.class);
+        when(realmResource.users()).thenReturn(usersResource);
+        when(realmResource.clients()).thenReturn(clientsResource);
+
+        Keycloak keycloak = stub(Keycloak.class);
+        when(keycloak.realm(anyString())).thenReturn(realmResource);
+        return keycloak;
+    }
+
+    /**
+     * Helper method to create a mock that does not record its invocations.
+     */
+    private static <T> T stub(Class<T> type) {
+        return mock(type, withSettings().stubOnly());
+    }
+}
@@ -0,0 +1,19 @@
+package ch.modul295.yannisstebler.FinanceApp.perf;
+
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.type.SqlTypes;
+
+/**
+ * H2 dialect for a database in PostgreSQL mode, which runs the PostgreSQL native queries but does not know TINYINT.
+ * Enums are stored as smallint, as in the Flyway schema.
+ */
+public class LoadTestDialect extends H2Dialect {
+
+    @Override
+    protected String columnType(int sqlTypeCode) {
+        if (sqlTypeCode == SqlTypes.TINYINT) {
+            return "smallint";
+        }
+        return super.columnType(sqlTypeCode);
+    }
+}
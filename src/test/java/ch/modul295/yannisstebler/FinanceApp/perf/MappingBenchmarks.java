@@ -0,0 +1,128 @@
+package ch.modul295.yannisstebler.FinanceApp.perf;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ch.modul295.yannisstebler.financeapp.model.Budget;
+import ch.modul295.yannisstebler.financeapp.model.Category;
+import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import ch.modul295.yannisstebler.financeapp.model.dto.BudgetDTO;
+import ch.modul295.yannisstebler.financeapp.model.dto.TransactionDTO;
+import ch.modul295.yannisstebler.financeapp.repository.BudgetRepository;
+import ch.modul295.yannisstebler.financeapp.repository.TransactionRepository;
+import ch.modul295.yannisstebler.financeapp.services.BalanceService;
+import ch.modul295.yannisstebler.financeapp.services.BudgetService;
+import ch.modul295.yannisstebler.financeapp.services.CategoryService;
+import ch.modul295.yannisstebler.financeapp.services.ResourceVersionService;
+import ch.modul295.yannisstebler.financeapp.services.SpendRollupService;
+import ch.modul295.yannisstebler.financeapp.services.TransactionService;
+
+/**
+ * The in-process part of TransactionService.createTransaction and BudgetService.createBudget: category lookup
+ * (cache hit) and DTO to entity mapping. Repositories and rollup services are replaced by no-op stand-ins,
+ * so database time is not part of the result.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MappingBenchmarks {
+
+    private static final String USERNAME = "benchmark";
+
+    private TransactionService transactionService;
+    private BudgetService budgetService;
+    private TransactionDTO transactionDTO;
+    private BudgetDTO budgetDTO;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Category category = new Category();
+        category.setId(1L);
+        category.setName("Food");
+        category.setKeycloak_username(USERNAME);
+
+        CategoryService categoryService = new CategoryService(null) {
+            @Override
+            public Optional<Category> getCachedCategory(Long id, String owner) {
+                return Optional.of(category);
+            }
+        };
+        SpendRollupService spendRollupService = new SpendRollupService() {
+            @Override
+            public void recordCreated(Collection<Transaction> transactions) {
+            }
+        };
+        BalanceService balanceService = new BalanceService() {
+            @Override
+            public void recordCreated(Collection<Transaction> transactions) {
+            }
+        };
+
+        ResourceVersionService resourceVersionService = new ResourceVersionService();
+
+        transactionService = new TransactionService();
+        ReflectionTestUtils.setField(transactionService, "transactionRepository", savingRepository(TransactionRepository.class));
+        ReflectionTestUtils.setField(transactionService, "categoryService", categoryService);
+        ReflectionTestUtils.setField(transactionService, "spendRollupService", spendRollupService);
+        ReflectionTestUtils.setField(transactionService, "balanceService", balanceService);
+        ReflectionTestUtils.setField(transactionService, "resourceVersionService", resourceVersionService);
+
+        budgetService = new BudgetService();
+        ReflectionTestUtils.setField(budgetService, "budgetRepository", savingRepository(BudgetRepository.class));
+        ReflectionTestUtils.setField(budgetService, "categoryService", categoryService);
+        ReflectionTestUtils.setField(budgetService, "resourceVersionService", resourceVersionService);
+
+        transactionDTO = new TransactionDTO();
+        transactionDTO.setAmount(new BigDecimal("42.50"));
+        transactionDTO.setType(TransactionDTO.Type.EXPENSE);
+        transactionDTO.setDate(new Date());
+        transactionDTO.setCategory_id(1L);
+
+        budgetDTO = new BudgetDTO();
+        budgetDTO.setCategory_id(1L);
+        budgetDTO.setLimit_amount(new BigDecimal("500.00"));
+    }
+
+    /**
+     * Helper method to create a repository whose save returns the entity unchanged; all other methods are unsupported.
+     */
+    @SuppressWarnings("unchecked")
+    private static <R> R savingRepository(Class<R> repositoryType) {
+        return (R) Proxy.newProxyInstance(repositoryType.getClassLoader(), new Class<?>[] { repositoryType }, (proxy, method, args) -> {
+            if (method.getName().equals("save")) {
+                return args[0];
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    @Benchmark
+    public Transaction createTransaction() {
+        return transactionService.createTransaction(USERNAME, transactionDTO);
+    }
+
+    @Benchmark
+    public Budget createBudget() {
+        return budgetService.createBudget(USERNAME, budgetDTO);
+    }
+}
@@ -0,0 +1,326 @@
+package ch.modul295.yannisstebler.FinanceApp.perf;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Replays a mix of list, create, update and delete requests against all four controllers with a fixed number of
+ * concurrent clients. Every client acts as its own user; user updates and deletions use an admin token.
+ */
+public class MixedTrafficDriver {
+
+    /**
+     * The requests of the mix and their relative weights.
+     */
+    public enum Operation {
+        LIST_TRANSACTIONS(20),
+        CREATE_TRANSACTION(15),
+        UPDATE_TRANSACTION(6),
+        PATCH_TRANSACTION(4),
+        DELETE_TRANSACTION(4),
+        LIST_CATEGORIES(10),
+        CREATE_CATEGORY(2),
+        UPDATE_CATEGORY(2),
+        PATCH_CATEGORY(1),
+        DELETE_CATEGORY(1),
+        LIST_BUDGETS(10),
+        CREATE_BUDGET(4),
+        UPDATE_BUDGET(3),
+        PATCH_BUDGET(2),
+        DELETE_BUDGET(2),
+        LIST_USERS(8),
+        CREATE_USER(6),
+        UPDATE_USER(4),
+        DELETE_USER(3);
+
+        private final int weight;
+
+        Operation(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private static final int TOTAL_WEIGHT = Arrays.stream(Operation.values()).mapToInt(operation -> operation.weight).sum();
+
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String baseUrl;
+    private final TokenMinter tokenMinter;
+    private final String adminToken;
+
+    // Makes the names of created users unique across runs against the same database
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong counter = new AtomicLong();
+
+    public MixedTrafficDriver(String baseUrl, TokenMinter tokenMinter) {
+        this.baseUrl = baseUrl;
+        this.tokenMinter = tokenMinter;
+        this.adminToken = tokenMinter.mint("load-admin", Duration.ofHours(12), "ROLE_user", "ROLE_admin");
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    /**
+     * Runs the mix with a fixed number of concurrent clients, each sending its next request as soon as the previous one completed.
+     *
+     * @param concurrency the number of clients
+     * @param duration how long to send requests
+     * @return the recorded requests per operation
+     */
+    public Map<Operation, LatencyRecorder> run(int concurrency, Duration duration) throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Future<Map<Operation, LatencyRecorder>>> clients = new ArrayList<>(concurrency);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                String username = "load-" + runId + "-" + i;
+                clients.add(executor.submit(() -> new Client(username).run(deadline)));
+            }
+        }
+
+        Map<Operation, LatencyRecorder> total = new EnumMap<>(Operation.class);
+        for (Future<Map<Operation, LatencyRecorder>> future : clients) {
+            future.get().forEach((operation, recorder) -> total.computeIfAbsent(operation, key -> new LatencyRecorder()).merge(recorder));
+        }
+        return total;
+    }
+
+    /**
+     * Formats the result of a run as CSV, one row per operation and a total row.
+     */
+    public static List<String> toCsv(Map<Operation, LatencyRecorder> result, Duration duration) {
+        List<String> rows = new ArrayList<>();
+        rows.add("operation,requests,errors,rps,p50_ms,p90_ms,p99_ms,max_ms");
+        LatencyRecorder total = new LatencyRecorder();
+        result.forEach((operation, recorder) -> {
+            rows.add(toCsv(operation.name(), recorder, duration));
+            total.merge(recorder);
+        });
+        rows.add(toCsv("TOTAL", total, duration));
+        return rows;
+    }
+
+    private static String toCsv(String name, LatencyRecorder recorder, Duration duration) {
+        long[] latencies = recorder.percentiles(0.50, 0.90, 0.99, 1.0);
+        return String.format(Locale.ROOT, "%s,%d,%d,%.1f,%.2f,%.2f,%.2f,%.2f", name, recorder.count(), recorder.errors(),
+                recorder.count() / (double) duration.toSeconds(), latencies[0] / 1e6, latencies[1] / 1e6, latencies[2] / 1e6,
+                latencies[3] / 1e6);
+    }
+
+    /**
+     * One simulated user, with the IDs of the entities it created so far.
+     */
+    private class Client {
+
+        private final String token;
+        private final Map<Operation, LatencyRecorder> recorders = new EnumMap<>(Operation.class);
+        private final List<Long> categoryIds = new ArrayList<>();
+        private final List<Long> transactionIds = new ArrayList<>();
+        private final List<Long> budgetIds = new ArrayList<>();
+        private final List<Long> userIds = new ArrayList<>();
+
+        Client(String username) {
+            this.token = tokenMinter.mint(username, Duration.ofHours(12), "ROLE_user");
+        }
+
+        Map<Operation, LatencyRecorder> run(long deadline) {
+            while (System.nanoTime() < deadline) {
+                execute(next());
+            }
+            return recorders;
+        }
+
+        /**
+         * Helper method to pick the next operation by weight; operations on entities fall back to creating one if there is none.
+         */
+        private Operation next() {
+            int pick = ThreadLocalRandom.current().nextInt(TOTAL_WEIGHT);
+            Operation operation = Operation.values()[0];
+            for (Operation candidate : Operation.values()) {
+                pick -= candidate.weight;
+                if (pick < 0) {
+                    operation = candidate;
+                    break;
+                }
+            }
+
+            if (categoryIds.isEmpty() && operation != Operation.LIST_CATEGORIES && operation.name().endsWith("CATEGORY")) {
+                return Operation.CREATE_CATEGORY;
+            }
+            switch (operation) {
+                case CREATE_TRANSACTION, CREATE_BUDGET:
+                    return categoryIds.isEmpty() ? Operation.CREATE_CATEGORY : operation;
+                case UPDATE_TRANSACTION, PATCH_TRANSACTION, DELETE_TRANSACTION:
+                    return transactionIds.isEmpty() ? next() : operation;
+                case UPDATE_BUDGET, PATCH_BUDGET, DELETE_BUDGET:
+                    return budgetIds.isEmpty() ? next() : operation;
+                case UPDATE_USER, DELETE_USER:
+                    return userIds.isEmpty() ? Operation.CREATE_USER : operation;
+                default:
+                    return operation;
+            }
+        }
+
+        private void execute(Operation operation) {
+            switch (operation) {
+                case LIST_TRANSACTIONS -> send(operation, get("/api/transactions"), null);
+                case CREATE_TRANSACTION -> send(operation, post("/api/transactions", transaction()), transactionIds);
+                case UPDATE_TRANSACTION -> send(operation, put("/api/transactions/" + any(transactionIds),
+                        "{\"amount\":" + amount() + ",\"type\":\"EXPENSE\",\"date\":" + System.currentTimeMillis()
+                        + ",\"category\":{\"id\":" + any(categoryIds) + "}}"), null);
+                case PATCH_TRANSACTION -> send(operation, patch("/api/transactions/" + any(transactionIds),
+                        "{\"amount\":" + amount() + "}"), null);
+                case DELETE_TRANSACTION -> send(operation, delete("/api/transactions/" + take(transactionIds)), null);
+                case LIST_CATEGORIES -> send(operation, get("/api/categories"), null);
+                case CREATE_CATEGORY -> send(operation, post("/api/categories",
+                        "{\"name\":\"Category " + counter.incrementAndGet() + "\",\"description\":\"Load test\"}"), categoryIds);
+                case UPDATE_CATEGORY -> send(operation, put("/api/categories/" + any(categoryIds),
+                        "{\"name\":\"Category " + counter.incrementAndGet() + "\",\"description\":\"Renamed\"}"), null);
+                case PATCH_CATEGORY -> send(operation, patch("/api/categories/" + any(categoryIds),
+                        "{\"description\":\"Patched " + counter.incrementAndGet() + "\"}"), null);
+                case DELETE_CATEGORY -> deleteCategory();
+                case LIST_BUDGETS -> send(operation, get("/api/budgets"), null);
+                case CREATE_BUDGET -> send(operation, post("/api/budgets",
+                        "{\"category_id\":" + any(categoryIds) + ",\"limit_amount\":" + amount() + "}"), budgetIds);
+                case UPDATE_BUDGET -> send(operation, put("/api/budgets/" + any(budgetIds),
+                        "{\"category_id\":" + any(categoryIds) + ",\"limit_amount\":" + amount() + "}"), null);
+                case PATCH_BUDGET -> send(operation, patch("/api/budgets/" + any(budgetIds),
+                        "{\"limit_amount\":" + amount() + "}"), null);
+                case DELETE_BUDGET -> send(operation, delete("/api/budgets/" + take(budgetIds)), null);
+                case LIST_USERS -> send(operation, get("/api/users"), null);
+                case CREATE_USER -> send(operation, post("/api/users", user("load-user-" + runId + "-" + counter.incrementAndGet())), userIds);
+                case UPDATE_USER -> {
+                    Long id = any(userIds);
+                    send(operation, put("/api/users/" + id, user("load-user-" + runId + "-" + counter.incrementAndGet())), null, adminToken);
+                }
+                case DELETE_USER -> send(operation, delete("/api/users/" + take(userIds)), null, adminToken);
+            }
+        }
+
+        /**
+         * Helper method to delete a category. Its transactions and budgets are deleted first, as the API requires.
+         */
+        private void deleteCategory() {
+            if (categoryIds.size() < 2) {
+                send(Operation.CREATE_CATEGORY, post("/api/categories", "{\"name\":\"Category " + counter.incrementAndGet()
+                        + "\",\"description\":\"Load test\"}"), categoryIds);
+                return;
+            }
+            // Only the oldest category is deleted, after removing everything that may reference it
+            while (!transactionIds.isEmpty()) {
+                send(Operation.DELETE_TRANSACTION, delete("/api/transactions/" + take(transactionIds)), null);
+            }
+            while (!budgetIds.isEmpty()) {
+                send(Operation.DELETE_BUDGET, delete("/api/budgets/" + take(budgetIds)), null);
+            }
+            send(Operation.DELETE_CATEGORY, delete("/api/categories/" + categoryIds.remove(0)), null);
+        }
+
+        private void send(Operation operation, HttpRequest.Builder request, List<Long> createdIds) {
+            send(operation, request, createdIds, token);
+        }
+
+        /**
+         * Helper method to send a request, record its latency and remember the ID of a created entity.
+         */
+        private void send(Operation operation, HttpRequest.Builder request, List<Long> createdIds, String bearerToken) {
+            HttpRequest built = request.header("Authorization", "Bearer " + bearerToken)
+                    .timeout(Duration.ofSeconds(30))
+                    .build();
+            long start = System.nanoTime();
+            boolean ok;
+            String body = null;
+            try {
+                HttpResponse<String> response = client.send(built, HttpResponse.BodyHandlers.ofString());
+                ok = response.statusCode() >= 200 && response.statusCode() < 300;
+                body = response.body();
+            } catch (IOException e) {
+                ok = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            recorders.computeIfAbsent(operation, key -> new LatencyRecorder()).record(System.nanoTime() - start, ok);
+
+            if (ok && createdIds != null && body != null && !body.isEmpty()) {
+                try {
+                    JsonNode id = objectMapper.readTree(body).get("id");
+                    if (id != null && id.canConvertToLong()) {
+                        createdIds.add(id.asLong());
+                    }
+                } catch (IOException e) {
+                    // Not counted as an error, the request itself succeeded
+                }
+            }
+        }
+
+        private HttpRequest.Builder get(String path) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + path)).GET();
+        }
+
+        private HttpRequest.Builder post(String path, String json) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(json));
+        }
+
+        private HttpRequest.Builder put(String path, String json) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString(json));
+        }
+
+        private HttpRequest.Builder patch(String path, String json) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                    .header("Content-Type", "application/json")
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString(json));
+        }
+
+        private HttpRequest.Builder delete(String path) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + path)).DELETE();
+        }
+
+        private String transaction() {
+            return "{\"amount\":" + amount() + ",\"type\":\"" + (ThreadLocalRandom.current().nextInt(5) == 0 ? "INCOME" : "EXPENSE")
+                    + "\",\"date\":" + (System.currentTimeMillis() - ThreadLocalRandom.current().nextLong(Duration.ofDays(365).toMillis()))
+                    + ",\"category_id\":" + any(categoryIds) + "}";
+        }
+
+        private String user(String username) {
+            return "{\"username\":\"" + username + "\",\"password\":\"load-password\",\"email\":\"" + username
+                    + "@example.com\",\"firstName\":\"Load\",\"lastName\":\"User\",\"active\":true}";
+        }
+
+        private String amount() {
+            return String.format(Locale.ROOT, "%.2f", ThreadLocalRandom.current().nextDouble(1, 500));
+        }
+
+        private Long any(List<Long> ids) {
+            return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+        }
+
+        private Long take(List<Long> ids) {
+            return ids.remove(ThreadLocalRandom.current().nextInt(ids.size()));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package ch.modul295.yannisstebler.FinanceApp.perf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import ch.modul295.yannisstebler.financeapp.config.WebConfig;
+import ch.modul295.yannisstebler.financeapp.model.Category;
+import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import ch.modul295.yannisstebler.financeapp.model.dto.TransactionPageDTO;
+
+/**
+ * Jackson serialisation of transaction pages with their nested categories, as returned by GET /api/transactions,
+ * in each negotiable format, with and without the gzip compression Tomcat applies to larger responses.
+ * Sizes are the default and the maximum page size. The payload sizes are printed once per trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SerializationBenchmarks {
+
+    @Param({ "50", "500" })
+    public int size;
+
+    @Param({ "json", "smile", "cbor" })
+    public String format;
+
+    private ObjectMapper objectMapper;
+    private TransactionPageDTO page;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        JsonFactory factory = switch (format) {
+            case "smile" -> WebConfig.smileFactory();
+            case "cbor" -> WebConfig.cborFactory();
+            default -> new JsonFactory();
+        };
+        // Same settings as the ObjectMapper Spring Boot configures for the MVC message converters
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .factory(factory)
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+
+        List<Category> categories = new ArrayList<>();
+        for (long i = 1; i <= 10; i++) {
+            Category category = new Category();
+            category.setId(i);
+            category.setName("Category " + i);
+            category.setDescription("Description of category " + i);
+            category.setKeycloak_username("benchmark");
+            categories.add(category);
+        }
+
+        List<Transaction> transactions = new ArrayList<>(size);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            Transaction transaction = new Transaction();
+            transaction.setId((long) i + 1);
+            transaction.setKeycloak_username("benchmark");
+            transaction.setAmount(BigDecimal.valueOf(1000 + i * 37L, 2));
+            transaction.setType(i % 5 == 0 ? Transaction.Type.INCOME : Transaction.Type.EXPENSE);
+            transaction.setDate(new Date(now - i * 3_600_000L));
+            transaction.setCategory(categories.get(i % categories.size()));
+            transactions.add(transaction);
+        }
+        page = new TransactionPageDTO(transactions, now + "," + size);
+
+        System.out.println("payload " + format + " size=" + size + ": " + serializePage().length + " bytes, "
+                + serializeAndGzipPage().length + " bytes gzipped");
+    }
+
+    @Benchmark
+    public byte[] serializePage() throws IOException {
+        return objectMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] serializeAndGzipPage() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            objectMapper.writeValue(gzip, page);
+        }
+        return bytes.toByteArray();
+    }
+}
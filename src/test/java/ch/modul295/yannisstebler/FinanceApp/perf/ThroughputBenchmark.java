@@ -0,0 +1,167 @@
+package ch.modul295.yannisstebler.FinanceApp.perf;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop throughput benchmark for GET /api/transactions and POST /api/users against a running instance.
+ *
+ * Start the application once with spring.threads.virtual.enabled=false and once with true, run the benchmark
+ * against each with the same settings and compare the rows appended to the CSV file:
+ *
+ * <pre>
+ * mvn -Pperf test-compile exec:java -Dperf.mode=platform -Dperf.token=&lt;access token&gt;
+ * mvn -Pperf test-compile exec:java -Dperf.mode=virtual -Dperf.token=&lt;access token&gt;
+ * </pre>
+ *
+ * System properties (defaults in brackets): perf.base-url [http://localhost:9090], perf.token (required for
+ * the transactions scenario), perf.mode [unknown], perf.scenarios [transactions,users], perf.concurrency [400],
+ * perf.warmup-seconds [15], perf.duration-seconds [60], perf.output [target/perf/throughput.csv].
+ */
+public class ThroughputBenchmark {
+
+    private static final String CSV_HEADER = "mode,scenario,concurrency,duration_s,requests,errors,rps,p50_ms,p99_ms,max_ms";
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final String token;
+    private final int concurrency;
+
+    // Makes the usernames of created users unique across runs against the same database
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong userCounter = new AtomicLong();
+
+    public ThroughputBenchmark(String baseUrl, String token, int concurrency) {
+        this.baseUrl = baseUrl;
+        this.token = token;
+        this.concurrency = concurrency;
+        // Virtual threads on the client side, so the load generator is not the bottleneck in either mode
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = System.getProperty("perf.base-url", "http://localhost:9090");
+        String token = System.getProperty("perf.token");
+        String mode = System.getProperty("perf.mode", "unknown");
+        List<String> scenarios = Arrays.asList(System.getProperty("perf.scenarios", "transactions,users").split(","));
+        int concurrency = Integer.getInteger("perf.concurrency", 400);
+        Duration warmup = Duration.ofSeconds(Integer.getInteger("perf.warmup-seconds", 15));
+        Duration duration = Duration.ofSeconds(Integer.getInteger("perf.duration-seconds", 60));
+        Path output = Path.of(System.getProperty("perf.output", "target/perf/throughput.csv"));
+
+        ThroughputBenchmark benchmark = new ThroughputBenchmark(baseUrl, token, concurrency);
+        System.out.println(CSV_HEADER);
+        for (String scenario : scenarios) {
+            benchmark.run(scenario.trim(), warmup);
+            Result result = benchmark.run(scenario.trim(), duration);
+            String row = result.toCsv(mode, scenario.trim(), concurrency);
+            System.out.println(row);
+            append(output, row);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Runs one scenario with a fixed number of concurrent clients, each sending its next request as soon as the previous one completed.
+     */
+    public Result run(String scenario, Duration duration) throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Future<LatencyRecorder>> workers = new ArrayList<>(concurrency);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                workers.add(executor.submit(() -> {
+                    LatencyRecorder recorder = new LatencyRecorder();
+                    while (System.nanoTime() < deadline) {
+                        HttpRequest request = request(scenario);
+                        long start = System.nanoTime();
+                        boolean ok;
+                        try {
+                            int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                            ok = status >= 200 && status < 300;
+                        } catch (IOException e) {
+                            ok = false;
+                        }
+                        recorder.record(System.nanoTime() - start, ok);
+                    }
+                    return recorder;
+                }));
+            }
+        }
+
+        LatencyRecorder total = new LatencyRecorder();
+        for (Future<LatencyRecorder> worker : workers) {
+            total.merge(worker.get());
+        }
+        long[] latencies = total.percentiles(0.50, 0.99, 1.0);
+        return new Result(total.count(), total.errors(), total.count() / (double) duration.toSeconds(),
+                latencies[0], latencies[1], latencies[2], duration.toSeconds());
+    }
+
+    /**
+     * Helper method to build the next request of a scenario.
+     */
+    private HttpRequest request(String scenario) {
+        switch (scenario) {
+            case "transactions":
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/api/transactions"))
+                        .header("Authorization", "Bearer " + token)
+                        .timeout(Duration.ofSeconds(30))
+                        .GET()
+                        .build();
+            case "users":
+                String username = "perf-" + runId + "-" + userCounter.incrementAndGet();
+                String body = "{\"username\":\"" + username + "\",\"password\":\"perf-password\","
+                        + "\"email\":\"" + username + "@example.com\",\"firstName\":\"Perf\",\"lastName\":\"User\"}";
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/api/users"))
+                        .header("Content-Type", "application/json")
+                        .timeout(Duration.ofSeconds(30))
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build();
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+    }
+
+    /**
+     * Helper method to append a result row to the CSV file, writing the header first if the file is new.
+     */
+    private static void append(Path output, String row) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        if (!Files.exists(output)) {
+            Files.writeString(output, CSV_HEADER + System.lineSeparator());
+        }
+        Files.writeString(output, row + System.lineSeparator(), StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Outcome of one measured run, latencies in nanoseconds.
+     */
+    public record Result(long requests, long errors, double rps, long p50, long p99, long max, long durationSeconds) {
+
+        String toCsv(String mode, String scenario, int concurrency) {
+            return String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%d,%.1f,%.2f,%.2f,%.2f", mode, scenario, concurrency,
+                    durationSeconds, requests, errors, rps, p50 / 1e6, p99 / 1e6, max / 1e6);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ch.modul295.yannisstebler.FinanceApp.perf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Issues access tokens shaped like Keycloak's (preferred_username, resource_access.&lt;appName&gt;.roles) and signed
+ * with a key generated at startup. The application trusts them once the public key is in its JWKS file.
+ */
+public class TokenMinter {
+
+    private final RSAKey key;
+    private final RSASSASigner signer;
+    private final String issuer;
+    private final String appName;
+
+    public TokenMinter(String issuer, String appName) {
+        try {
+            this.key = new RSAKeyGenerator(2048).keyID("loadtest-" + UUID.randomUUID()).generate();
+            this.signer = new RSASSASigner(key);
+        } catch (JOSEException e) {
+            throw new IllegalStateException("Could not generate the signing key", e);
+        }
+        this.issuer = issuer;
+        this.appName = appName;
+    }
+
+    /**
+     * Writes the public key as a JWK set, in the format the application reads from financeapp.jwt.jwks-file.
+     */
+    public void writeJwkSet(Path file) throws IOException {
+        Files.writeString(file, new JWKSet(key.toPublicJWK()).toString(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Issues a token for a user.
+     *
+     * @param username the preferred_username claim
+     * @param validity the time until the token expires
+     * @param roles the application roles, e.g. ROLE_user
+     * @return the serialized token
+     */
+    public String mint(String username, Duration validity, String... roles) {
+        Instant now = Instant.now();
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .issuer(issuer)
+                .subject(UUID.nameUUIDFromBytes(username.getBytes(StandardCharsets.UTF_8)).toString())
+                .jwtID(UUID.randomUUID().toString())
+                .issueTime(Date.from(now))
+                .expirationTime(Date.from(now.plus(validity)))
+                .claim("preferred_username", username)
+                .claim("resource_access", Map.of(appName, Map.of("roles", List.of(roles))))
+                .build();
+
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256)
+                .keyID(key.getKeyID())
+                .type(JOSEObjectType.JWT)
+                .build(), claims);
+        try {
+            jwt.sign(signer);
+        } catch (JOSEException e) {
+            throw new IllegalStateException("Could not sign the token", e);
+        }
+        return jwt.serialize();
+    }
+}
@@ -0,0 +1,164 @@
+package ch.modul295.yannisstebler.FinanceApp.tests;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import ch.modul295.yannisstebler.financeapp.repository.BalanceIndexRepository;
+import ch.modul295.yannisstebler.financeapp.services.BalanceService;
+
+/**
+ * Runs fully offline: the balance_index table is replaced by a map of node amounts per user.
+ */
+public class BalanceServiceTest {
+
+    private static final LocalDate LAST_DAY = BalanceService.FIRST_DAY.plusDays(BalanceService.DAYS - 1);
+
+    private final Map<String, Map<Integer, BigDecimal>> nodes = new HashMap<>();
+
+    // Nodes in the order they were passed to addToNodes
+    private final List<Integer> writtenNodes = new ArrayList<>();
+
+    private BalanceService balanceService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        BalanceIndexRepository balanceIndexRepository = Mockito.mock(BalanceIndexRepository.class);
+        Mockito.doAnswer(invocation -> {
+            Map<String, Map<Integer, BigDecimal>> deltas = invocation.getArgument(0);
+            deltas.forEach((owner, amounts) -> amounts.forEach((node, amount) -> {
+                writtenNodes.add(node);
+                nodes.computeIfAbsent(owner, key -> new HashMap<>()).merge(node, amount, BigDecimal::add);
+            }));
+            return null;
+        }).when(balanceIndexRepository).addToNodes(ArgumentMatchers.any());
+        Mockito.when(balanceIndexRepository.sumNodes(ArgumentMatchers.anyString(), ArgumentMatchers.any())).thenAnswer(invocation -> {
+            Map<Integer, BigDecimal> tree = nodes.getOrDefault(invocation.getArgument(0), Map.of());
+            return ((Collection<Integer>) invocation.getArgument(1)).stream()
+                    .map(node -> tree.getOrDefault(node, BigDecimal.ZERO))
+                    .reduce(BigDecimal.ZERO, BigDecimal::add);
+        });
+
+        balanceService = new BalanceService();
+        ReflectionTestUtils.setField(balanceService, "balanceIndexRepository", balanceIndexRepository);
+    }
+
+    @Test
+    public void testBalanceMatchesNaiveSum() {
+        Random random = new Random(42);
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            // Mostly inside the tree, some before its first and after its last day
+            LocalDate date = BalanceService.FIRST_DAY.plusDays(random.nextInt(BalanceService.DAYS + 2000) - 1000);
+            Transaction.Type type = random.nextBoolean() ? Transaction.Type.INCOME : Transaction.Type.EXPENSE;
+            transactions.add(transaction("testuser", date, type, random.nextInt(100000)));
+        }
+        balanceService.recordCreated(transactions);
+
+        List<LocalDate> days = new ArrayList<>(List.of(BalanceService.FIRST_DAY.minusDays(1), BalanceService.FIRST_DAY,
+                LAST_DAY.minusDays(1), LAST_DAY, LAST_DAY.plusDays(1)));
+        for (int i = 0; i < 200; i++) {
+            days.add(BalanceService.FIRST_DAY.plusDays(random.nextInt(BalanceService.DAYS)));
+        }
+        for (LocalDate day : days) {
+            Assertions.assertEquals(0, naiveBalance(transactions, day).compareTo(balanceService.getBalance("testuser", day)), day.toString());
+        }
+    }
+
+    @Test
+    public void testDatesOutsideTheTreeAreClamped() {
+        balanceService.recordCreated(List.of(
+                transaction("testuser", BalanceService.FIRST_DAY.minusYears(5), Transaction.Type.INCOME, 100),
+                transaction("testuser", LAST_DAY.plusYears(5), Transaction.Type.EXPENSE, 30)));
+
+        // Counted on the first day, but a balance before the tree is always zero
+        Assertions.assertEquals(0, BigDecimal.ZERO.compareTo(balanceService.getBalance("testuser", BalanceService.FIRST_DAY.minusDays(1))));
+        Assertions.assertEquals(0, new BigDecimal("100").compareTo(balanceService.getBalance("testuser", BalanceService.FIRST_DAY)));
+
+        // Counted on the last day
+        Assertions.assertEquals(0, new BigDecimal("100").compareTo(balanceService.getBalance("testuser", LAST_DAY.minusDays(1))));
+        Assertions.assertEquals(0, new BigDecimal("70").compareTo(balanceService.getBalance("testuser", LAST_DAY)));
+        Assertions.assertEquals(0, new BigDecimal("70").compareTo(balanceService.getBalance("testuser", LAST_DAY.plusYears(10))));
+    }
+
+    @Test
+    public void testUpdateWritesEveryNodeOnceInOrder() {
+        Transaction before = transaction("testuser", LocalDate.of(2025, 3, 14), Transaction.Type.EXPENSE, 40);
+        Transaction after = transaction("testuser", LocalDate.of(2025, 3, 20), Transaction.Type.INCOME, 25);
+        balanceService.recordCreated(List.of(before));
+        writtenNodes.clear();
+
+        balanceService.recordUpdated(before, after);
+
+        Assertions.assertEquals(writtenNodes.stream().distinct().sorted().toList(), writtenNodes);
+        Assertions.assertEquals(0, BigDecimal.ZERO.compareTo(balanceService.getBalance("testuser", LocalDate.of(2025, 3, 19))));
+        Assertions.assertEquals(0, new BigDecimal("25").compareTo(balanceService.getBalance("testuser", LocalDate.of(2025, 3, 20))));
+    }
+
+    @Test
+    public void testUnchangedUpdateWritesNothing() {
+        Transaction transaction = transaction("testuser", LocalDate.of(2025, 3, 14), Transaction.Type.EXPENSE, 40);
+        balanceService.recordCreated(List.of(transaction));
+        writtenNodes.clear();
+
+        balanceService.recordUpdated(transaction, transaction);
+
+        Assertions.assertTrue(writtenNodes.isEmpty());
+    }
+
+    @Test
+    public void testDeleteRestoresBalance() {
+        Transaction kept = transaction("testuser", LocalDate.of(2024, 1, 1), Transaction.Type.INCOME, 500);
+        Transaction deleted = transaction("testuser", LocalDate.of(2024, 6, 1), Transaction.Type.EXPENSE, 120);
+        balanceService.recordCreated(List.of(kept, deleted));
+        balanceService.recordDeleted(List.of(deleted));
+
+        Assertions.assertEquals(0, new BigDecimal("500").compareTo(balanceService.getBalance("testuser", LocalDate.of(2025, 1, 1))));
+        Assertions.assertEquals(0, BigDecimal.ZERO.compareTo(balanceService.getBalance("otheruser", LocalDate.of(2025, 1, 1))));
+    }
+
+    private static Transaction transaction(String owner, LocalDate date, Transaction.Type type, long amount) {
+        Transaction transaction = new Transaction();
+        transaction.setKeycloak_username(owner);
+        transaction.setDate(Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant()));
+        transaction.setType(type);
+        transaction.setAmount(BigDecimal.valueOf(amount));
+        return transaction;
+    }
+
+    /**
+     * Sums the transactions up to and including a day, moving dates outside the tree to its first or last day.
+     */
+    private static BigDecimal naiveBalance(List<Transaction> transactions, LocalDate at) {
+        if (at.isBefore(BalanceService.FIRST_DAY)) {
+            return BigDecimal.ZERO;
+        }
+        LocalDate end = at.isAfter(LAST_DAY) ? LAST_DAY : at;
+        BigDecimal balance = BigDecimal.ZERO;
+        for (Transaction transaction : transactions) {
+            LocalDate date = LocalDate.ofInstant(transaction.getDate().toInstant(), ZoneId.systemDefault());
+            if (!date.isAfter(end) || end.equals(LAST_DAY)) {
+                balance = transaction.getType() == Transaction.Type.INCOME
+                        ? balance.add(transaction.getAmount())
+                        : balance.subtract(transaction.getAmount());
+            }
+        }
+        return balance;
+    }
+}
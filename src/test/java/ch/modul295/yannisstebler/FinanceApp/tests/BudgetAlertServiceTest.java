@@ -0,0 +1,290 @@
+package ch.modul295.yannisstebler.FinanceApp.tests;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ch.modul295.yannisstebler.financeapp.model.Budget;
+import ch.modul295.yannisstebler.financeapp.model.Category;
+import ch.modul295.yannisstebler.financeapp.model.SpendRollup;
+import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import ch.modul295.yannisstebler.financeapp.model.dto.BudgetAlertDTO;
+import ch.modul295.yannisstebler.financeapp.repository.BudgetRepository;
+import ch.modul295.yannisstebler.financeapp.repository.SpendRollupRepository;
+import ch.modul295.yannisstebler.financeapp.services.BudgetAlertService;
+import ch.modul295.yannisstebler.financeapp.services.ResourceVersionService;
+import ch.modul295.yannisstebler.financeapp.services.SpendRollupService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Runs fully offline: the repositories are mocks and the published alerts are collected in a list.
+ * One budget of 100 on category 1 of testuser, with the default thresholds of 80 and 100 percent.
+ */
+public class BudgetAlertServiceTest {
+
+    private static final LocalDate MONTH = YearMonth.now().atDay(1);
+
+    private final List<BudgetAlertDTO> alerts = new ArrayList<>();
+
+    private BudgetRepository budgetRepository;
+
+    private SpendRollupRepository spendRollupRepository;
+
+    private ResourceVersionService.ChangeListener changeListener;
+
+    private BudgetAlertService budgetAlertService;
+
+    @BeforeEach
+    public void setup() {
+        budgetRepository = Mockito.mock(BudgetRepository.class);
+        Mockito.when(budgetRepository.findAllByOwner(ArgumentMatchers.any())).thenReturn(List.of(budget(new BigDecimal("100"))));
+        spendRollupRepository = Mockito.mock(SpendRollupRepository.class);
+        ResourceVersionService resourceVersionService = Mockito.mock(ResourceVersionService.class);
+
+        budgetAlertService = new BudgetAlertService();
+        ReflectionTestUtils.setField(budgetAlertService, "budgetRepository", budgetRepository);
+        ReflectionTestUtils.setField(budgetAlertService, "spendRollupRepository", spendRollupRepository);
+        ReflectionTestUtils.setField(budgetAlertService, "resourceVersionService", resourceVersionService);
+        ReflectionTestUtils.setField(budgetAlertService, "eventPublisher", (ApplicationEventPublisher) event -> alerts.add((BudgetAlertDTO) event));
+        ReflectionTestUtils.setField(budgetAlertService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(budgetAlertService, "transactionManager", Mockito.mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(budgetAlertService, "jdbcTemplate", Mockito.mock(JdbcTemplate.class));
+        // Unsorted on purpose: init sorts them
+        ReflectionTestUtils.setField(budgetAlertService, "thresholds", List.of(100, 80));
+        ReflectionTestUtils.setField(budgetAlertService, "monthsBack", 1);
+        budgetAlertService.init();
+
+        ArgumentCaptor<ResourceVersionService.ChangeListener> listener = ArgumentCaptor.forClass(ResourceVersionService.ChangeListener.class);
+        Mockito.verify(resourceVersionService).addChangeListener(listener.capture());
+        changeListener = listener.getValue();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        budgetAlertService.shutdown();
+    }
+
+    @Test
+    public void testThresholdFiresOncePerCrossing() {
+        spend("50");
+        Assertions.assertTrue(alerts.isEmpty());
+
+        spend("35");
+        assertAlerts(List.of(80));
+        spend("5");
+        assertAlerts(List.of());
+
+        spend("20");
+        assertAlerts(List.of(100));
+        spend("10");
+        assertAlerts(List.of());
+
+        // Falls below 100 but not below 80, so only 100 is reported again
+        spend("-40");
+        spend("30");
+        assertAlerts(List.of(100));
+
+        spend("-50");
+        spend("30");
+        assertAlerts(List.of(80));
+    }
+
+    @Test
+    public void testSeveralThresholdsInOneWrite() {
+        spend("150");
+
+        Assertions.assertEquals(0, new BigDecimal("150").compareTo(alerts.get(0).getSpent()));
+        assertAlerts(List.of(80, 100));
+    }
+
+    @Test
+    public void testIncomeUncategorisedAndOtherUsersAreIgnored() {
+        budgetAlertService.recordSpend(Map.of(new SpendRollup.Key("testuser", MONTH, 1L, Transaction.Type.INCOME), new BigDecimal("500")));
+        budgetAlertService.recordSpend(Map.of(new SpendRollup.Key("testuser", MONTH, SpendRollupService.NO_CATEGORY,
+                Transaction.Type.EXPENSE), new BigDecimal("500")));
+        budgetAlertService.recordSpend(Map.of(new SpendRollup.Key("otheruser", MONTH, 1L, Transaction.Type.EXPENSE), new BigDecimal("500")));
+
+        assertAlerts(List.of());
+    }
+
+    @Test
+    public void testUpdateInMonthCountsOnlyItsDifference() {
+        spend("85");
+        assertAlerts(List.of(80));
+
+        // The old state is removed and the new state added in the same database transaction
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            budgetAlertService.recordSpend(Map.of(key(), new BigDecimal("-85")));
+            budgetAlertService.recordSpend(Map.of(key(), new BigDecimal("86")));
+            Assertions.assertTrue(alerts.isEmpty(), "evaluated before the commit");
+            beforeCommit();
+            commit();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertAlerts(List.of());
+
+        spend("14");
+        assertAlerts(List.of(100));
+    }
+
+    @Test
+    public void testRolledBackWriteIsIgnored() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            budgetAlertService.recordSpend(Map.of(key(), new BigDecimal("90")));
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+            }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        spend("10");
+        assertAlerts(List.of());
+    }
+
+    @Test
+    public void testLimitChangeIsSilent() throws Exception {
+        spend("90");
+        assertAlerts(List.of(80));
+
+        // 90 of 50 reaches 100 percent only because of the new limit
+        changeLimit("50");
+        spend("1");
+        assertAlerts(List.of());
+
+        changeLimit("200");
+        spend("1");
+        assertAlerts(List.of());
+        spend("70");
+        assertAlerts(List.of(80));
+    }
+
+    @Test
+    public void testReloadDuringWritesKeepsEveryWriteOnce() throws Exception {
+        // The committed total of the rollup
+        AtomicReference<BigDecimal> committed = new AtomicReference<>(BigDecimal.ZERO);
+        Mockito.when(spendRollupRepository.findByOwnerAndTypeSince(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any()))
+                .thenAnswer(invocation -> List.of(rollup(committed.get())));
+
+        CompletableFuture<Void> writes = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < 200; i++) {
+                TransactionSynchronizationManager.initSynchronization();
+                try {
+                    budgetAlertService.recordSpend(Map.of(key(), BigDecimal.ONE));
+                    beforeCommit();
+                    committed.accumulateAndGet(BigDecimal.ONE, BigDecimal::add);
+                    // Committed in the database, but not yet applied
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                    commit();
+                } finally {
+                    TransactionSynchronizationManager.clearSynchronization();
+                }
+            }
+        });
+        // Only during the first half, so a later reload cannot repair a write lost or counted twice
+        while (committed.get().intValue() < 100) {
+            budgetAlertService.reloadSpends("testuser");
+            waitForLoader();
+        }
+        writes.get(5, TimeUnit.SECONDS);
+
+        // Back below 100 and up again reaches 100 only from exactly 200
+        alerts.clear();
+        spend("-102");
+        spend("1");
+        Assertions.assertTrue(alerts.isEmpty());
+        spend("1");
+        Assertions.assertEquals(0, new BigDecimal("100").compareTo(alerts.get(0).getSpent()));
+        assertAlerts(List.of(100));
+    }
+
+    private void spend(String amount) {
+        budgetAlertService.recordSpend(Map.of(key(), new BigDecimal(amount)));
+    }
+
+    private void changeLimit(String limit) throws Exception {
+        Mockito.when(budgetRepository.findAllByOwner(ArgumentMatchers.any())).thenReturn(List.of(budget(new BigDecimal(limit))));
+        changeListener.changed("testuser", ResourceVersionService.Resource.BUDGETS);
+
+        // Budgets are loaded one after the other in the background
+        waitForLoader();
+    }
+
+    private void waitForLoader() throws Exception {
+        ExecutorService loader = (ExecutorService) ReflectionTestUtils.getField(budgetAlertService, "loader");
+        loader.submit(() -> { }).get();
+    }
+
+    private void assertAlerts(List<Integer> thresholds) {
+        Assertions.assertEquals(thresholds, alerts.stream().map(BudgetAlertDTO::getThreshold).toList());
+        alerts.forEach(alert -> {
+            Assertions.assertEquals(7L, alert.getBudget_id());
+            Assertions.assertEquals(YearMonth.from(MONTH), alert.getMonth());
+        });
+        alerts.clear();
+    }
+
+    private static void beforeCommit() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.beforeCommit(false);
+        }
+    }
+
+    private static void commit() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCommit();
+        }
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+    }
+
+    private static SpendRollup.Key key() {
+        return new SpendRollup.Key("testuser", MONTH, 1L, Transaction.Type.EXPENSE);
+    }
+
+    private static SpendRollup rollup(BigDecimal total) {
+        SpendRollup rollup = new SpendRollup();
+        rollup.setKeycloak_username("testuser");
+        rollup.setCategory_id(1L);
+        rollup.setPeriod_start(MONTH);
+        rollup.setTotal(total);
+        return rollup;
+    }
+
+    private static Budget budget(BigDecimal limit) {
+        Category category = new Category();
+        category.setId(1L);
+        Budget budget = new Budget();
+        budget.setId(7L);
+        budget.setKeycloak_username("testuser");
+        budget.setCategory(category);
+        budget.setLimit_amount(limit);
+        return budget;
+    }
+}
@@ -0,0 +1,101 @@
+package ch.modul295.yannisstebler.FinanceApp.tests;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import ch.modul295.yannisstebler.financeapp.security.CachedJwkSource;
+
+/**
+ * Runs fully offline: the keys are generated locally and served from a JWKS file.
+ */
+public class CachedJwkSourceTest {
+
+    private static final String ISSUER = "http://localhost:8080/realms/financeApp";
+
+    @TempDir
+    Path tempDir;
+
+    private Path jwksFile;
+
+    private RSAKey key;
+
+    private CachedJwkSource jwkSource;
+
+    private JwtDecoder jwtDecoder;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        key = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        jwksFile = tempDir.resolve("jwks.json");
+        Files.writeString(jwksFile, new JWKSet(key).toPublicJWKSet().toString());
+
+        jwkSource = new CachedJwkSource(jwksFile, null, Duration.ofHours(1), Duration.ZERO);
+        jwkSource.start();
+        jwtDecoder = jwkSource.createJwtDecoder(ISSUER);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        jwkSource.close();
+    }
+
+    @Test
+    public void testDecodeValidToken() throws Exception {
+        Jwt jwt = jwtDecoder.decode(sign(key, ISSUER));
+        Assertions.assertEquals("testuser", jwt.getClaimAsString("preferred_username"));
+    }
+
+    @Test
+    public void testRejectWrongIssuer() throws Exception {
+        String token = sign(key, "http://localhost:8080/realms/other");
+        Assertions.assertThrows(JwtException.class, () -> jwtDecoder.decode(token));
+    }
+
+    @Test
+    public void testUnknownKidTriggersRefresh() throws Exception {
+        RSAKey rotatedKey = new RSAKeyGenerator(2048).keyID("key-2").generate();
+        Files.writeString(jwksFile, new JWKSet(List.of(key, rotatedKey)).toPublicJWKSet().toString());
+        String token = sign(rotatedKey, ISSUER);
+
+        // Rejected without waiting for the keys, which are reloaded in the background
+        Assertions.assertThrows(JwtException.class, () -> jwtDecoder.decode(token));
+
+        jwkSource.refresh().get();
+        Assertions.assertEquals("testuser", jwtDecoder.decode(token).getClaimAsString("preferred_username"));
+    }
+
+    private String sign(RSAKey signingKey, String issuer) throws Exception {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .issuer(issuer)
+                .subject("1")
+                .claim("preferred_username", "testuser")
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plusSeconds(300)))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(signingKey.getKeyID()).build(), claims);
+        jwt.sign(new RSASSASigner(signingKey));
+        return jwt.serialize();
+    }
+}
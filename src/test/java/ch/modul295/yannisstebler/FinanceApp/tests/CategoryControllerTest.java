@@ -97,6 +97,10 @@ public class CategoryControllerTest {
                 .header("Authorization", "Bearer " + accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(existingCategory)))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/categories/" + existingCategory.getId())
+                .header("Authorization", "Bearer " + accessToken))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.name").value("Updated Category"))
                 .andExpect(jsonPath("$.description").value("Updated Description"));
@@ -0,0 +1,156 @@
+package ch.modul295.yannisstebler.FinanceApp.tests;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import ch.modul295.yannisstebler.financeapp.services.IdempotencyService;
+
+/**
+ * Runs fully offline: the operations are counters instead of database writes.
+ */
+public class IdempotencyServiceTest {
+
+    private static final String ENDPOINT = "POST /api/transactions";
+
+    private IdempotencyService idempotencyService;
+
+    private AtomicInteger runs;
+
+    @BeforeEach
+    public void setup() {
+        idempotencyService = new IdempotencyService(Duration.ofHours(1), 1000, Duration.ofSeconds(5));
+        runs = new AtomicInteger();
+    }
+
+    @Test
+    public void testRetryReplaysFirstResponse() {
+        ResponseEntity<String> first = idempotencyService.execute("testuser", ENDPOINT, "key-1", "body", this::create);
+        ResponseEntity<String> retry = idempotencyService.execute("testuser", ENDPOINT, "key-1", "body", this::create);
+
+        Assertions.assertEquals(1, runs.get());
+        Assertions.assertEquals(HttpStatus.CREATED, retry.getStatusCode());
+        Assertions.assertEquals(first.getBody(), retry.getBody());
+        Assertions.assertNull(first.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER));
+        Assertions.assertEquals("true", retry.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER));
+    }
+
+    @Test
+    public void testKeysAreScopedToUserAndEndpoint() {
+        idempotencyService.execute("testuser", ENDPOINT, "key-1", "body", this::create);
+        idempotencyService.execute("otheruser", ENDPOINT, "key-1", "body", this::create);
+        idempotencyService.execute("testuser", "POST /api/budgets", "key-1", "body", this::create);
+
+        Assertions.assertEquals(3, runs.get());
+    }
+
+    @Test
+    public void testDifferentBodyIsRejected() {
+        idempotencyService.execute("testuser", ENDPOINT, "key-1", "body", this::create);
+        ResponseEntity<String> response = idempotencyService.execute("testuser", ENDPOINT, "key-1", "other body", this::create);
+
+        Assertions.assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, response.getStatusCode());
+        Assertions.assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testInvalidKeyIsRejected() {
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST,
+                idempotencyService.execute("testuser", ENDPOINT, " ", "body", this::create).getStatusCode());
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST,
+                idempotencyService.execute("testuser", ENDPOINT, "k".repeat(256), "body", this::create).getStatusCode());
+        Assertions.assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void testConcurrentDuplicateWaitsForFirstRequest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<ResponseEntity<String>> first = CompletableFuture.supplyAsync(() ->
+                idempotencyService.execute("testuser", ENDPOINT, "key-1", "body", () -> {
+                    started.countDown();
+                    await(release);
+                    return create();
+                }));
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<ResponseEntity<String>> duplicate = CompletableFuture.supplyAsync(() ->
+                idempotencyService.execute("testuser", ENDPOINT, "key-1", "body", this::create));
+        Thread.sleep(200);
+        Assertions.assertFalse(duplicate.isDone());
+
+        release.countDown();
+        Assertions.assertEquals(first.get(5, TimeUnit.SECONDS).getBody(), duplicate.get(5, TimeUnit.SECONDS).getBody());
+        Assertions.assertEquals("true", duplicate.get().getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER));
+        Assertions.assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testDuplicateIsRejectedAfterWaitTimeout() throws Exception {
+        idempotencyService = new IdempotencyService(Duration.ofHours(1), 1000, Duration.ofMillis(100));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<ResponseEntity<String>> first = CompletableFuture.supplyAsync(() ->
+                idempotencyService.execute("testuser", ENDPOINT, "key-1", "body", () -> {
+                    started.countDown();
+                    await(release);
+                    return create();
+                }));
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        ResponseEntity<String> duplicate = idempotencyService.execute("testuser", ENDPOINT, "key-1", "body", this::create);
+        release.countDown();
+
+        Assertions.assertEquals(HttpStatus.CONFLICT, duplicate.getStatusCode());
+        Assertions.assertEquals(HttpStatus.CREATED, first.get(5, TimeUnit.SECONDS).getStatusCode());
+        Assertions.assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testKeyIsReleasedAfterException() {
+        Assertions.assertThrows(IllegalStateException.class, () ->
+                idempotencyService.execute("testuser", ENDPOINT, "key-1", "body", () -> {
+                    runs.incrementAndGet();
+                    throw new IllegalStateException("database unavailable");
+                }));
+
+        ResponseEntity<String> retry = idempotencyService.execute("testuser", ENDPOINT, "key-1", "body", this::create);
+
+        Assertions.assertEquals(HttpStatus.CREATED, retry.getStatusCode());
+        Assertions.assertNull(retry.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER));
+        Assertions.assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testKeyIsReleasedAfterErrorResponse() {
+        ResponseEntity<String> rejected = idempotencyService.execute("testuser", ENDPOINT, "key-1", "body", () -> {
+            runs.incrementAndGet();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        });
+        ResponseEntity<String> retry = idempotencyService.execute("testuser", ENDPOINT, "key-1", "body", this::create);
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, rejected.getStatusCode());
+        Assertions.assertEquals(HttpStatus.CREATED, retry.getStatusCode());
+        Assertions.assertEquals(2, runs.get());
+    }
+
+    private ResponseEntity<String> create() {
+        return ResponseEntity.status(HttpStatus.CREATED).body("created " + runs.incrementAndGet());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
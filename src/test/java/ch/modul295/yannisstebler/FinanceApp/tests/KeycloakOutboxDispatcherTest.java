@@ -0,0 +1,160 @@
+package ch.modul295.yannisstebler.FinanceApp.tests;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.UsersResource;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ch.modul295.yannisstebler.financeapp.model.KeycloakOutboxEntry;
+import ch.modul295.yannisstebler.financeapp.model.User;
+import ch.modul295.yannisstebler.financeapp.repository.UserRepository;
+import ch.modul295.yannisstebler.financeapp.services.KeycloakOutboxDispatcher;
+import ch.modul295.yannisstebler.financeapp.services.KeycloakOutboxService;
+import ch.modul295.yannisstebler.financeapp.services.KeycloakService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Runs fully offline: the Keycloak admin client is a mock answering the create call with a given status.
+ * Checks which failures mark an outbox entry as permanently failed and which are retried.
+ */
+public class KeycloakOutboxDispatcherTest {
+
+    private static final String REALM = "test";
+
+    private UsersResource usersResource;
+
+    private KeycloakOutboxService keycloakOutboxService;
+
+    private KeycloakOutboxDispatcher dispatcher;
+
+    private KeycloakOutboxEntry entry;
+
+    @BeforeEach
+    public void setup() {
+        Keycloak keycloak = Mockito.mock(Keycloak.class, Mockito.RETURNS_DEEP_STUBS);
+        usersResource = Mockito.mock(UsersResource.class, Mockito.RETURNS_DEEP_STUBS);
+        Mockito.when(keycloak.realm(REALM).users()).thenReturn(usersResource);
+
+        KeycloakService keycloakService = new KeycloakService();
+        ReflectionTestUtils.setField(keycloakService, "keycloak", keycloak);
+        ReflectionTestUtils.setField(keycloakService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(keycloakService, "realm", REALM);
+        ReflectionTestUtils.setField(keycloakService, "clientLongId", "client-id");
+
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("testuser");
+        user.setPassword("secret");
+        UserRepository userRepository = Mockito.mock(UserRepository.class);
+        Mockito.when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+
+        keycloakOutboxService = Mockito.mock(KeycloakOutboxService.class);
+        dispatcher = new KeycloakOutboxDispatcher(1);
+        ReflectionTestUtils.setField(dispatcher, "keycloakOutboxService", keycloakOutboxService);
+        ReflectionTestUtils.setField(dispatcher, "keycloakService", keycloakService);
+        ReflectionTestUtils.setField(dispatcher, "userRepository", userRepository);
+
+        entry = new KeycloakOutboxEntry();
+        entry.setUser_id(1L);
+        entry.setUsername("testuser");
+        entry.setOperation(KeycloakOutboxEntry.Operation.CREATE);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testCreatedAccountCompletesEntry() {
+        Response response = response(201);
+        Mockito.when(response.getStatusInfo()).thenReturn(Response.Status.CREATED);
+        Mockito.when(response.getLocation()).thenReturn(URI.create("http://localhost/admin/realms/test/users/kc-1"));
+        Mockito.when(usersResource.create(ArgumentMatchers.any())).thenReturn(response);
+
+        process();
+
+        Mockito.verify(keycloakOutboxService).complete(entry, "kc-1");
+    }
+
+    @Test
+    public void testRejectedUserDataFailsPermanently() {
+        for (int status : new int[] {400, 422}) {
+            answerCreate(status);
+            process();
+        }
+
+        Mockito.verify(keycloakOutboxService, Mockito.times(2)).fail(ArgumentMatchers.eq(entry), ArgumentMatchers.any(), ArgumentMatchers.eq(true));
+        Mockito.verify(keycloakOutboxService, Mockito.never()).fail(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.eq(false));
+    }
+
+    @Test
+    public void testUsernameOfAnotherAccountFailsPermanently() {
+        answerCreate(409);
+        UserRepresentation other = new UserRepresentation();
+        other.setId("kc-other");
+        other.setAttributes(Map.of("financeapp_user_id", List.of("2")));
+        Mockito.when(usersResource.search("testuser", true)).thenReturn(List.of(other));
+
+        process();
+
+        Mockito.verify(keycloakOutboxService).fail(ArgumentMatchers.eq(entry), ArgumentMatchers.any(), ArgumentMatchers.eq(true));
+    }
+
+    @Test
+    public void testRefusedAdminClientIsRetried() {
+        // Expired token, missing permission, timeout and rate limiting
+        for (int status : new int[] {401, 403, 408, 429}) {
+            answerCreate(status);
+            process();
+        }
+
+        Mockito.verify(keycloakOutboxService, Mockito.times(4)).fail(ArgumentMatchers.eq(entry), ArgumentMatchers.any(), ArgumentMatchers.eq(false));
+        Mockito.verify(keycloakOutboxService, Mockito.never()).fail(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.eq(true));
+    }
+
+    @Test
+    public void testServerErrorIsRetried() {
+        answerCreate(503);
+
+        process();
+
+        Mockito.verify(keycloakOutboxService).fail(ArgumentMatchers.eq(entry), ArgumentMatchers.any(), ArgumentMatchers.eq(false));
+    }
+
+    @Test
+    public void testUnreachableKeycloakIsRetried() {
+        Mockito.when(usersResource.create(ArgumentMatchers.any())).thenThrow(new ProcessingException("Connection refused"));
+
+        process();
+
+        Mockito.verify(keycloakOutboxService).fail(ArgumentMatchers.eq(entry), ArgumentMatchers.any(), ArgumentMatchers.eq(false));
+    }
+
+    private void process() {
+        ReflectionTestUtils.invokeMethod(dispatcher, "process", entry);
+    }
+
+    private void answerCreate(int status) {
+        Response response = response(status);
+        Mockito.when(usersResource.create(ArgumentMatchers.any())).thenReturn(response);
+    }
+
+    private static Response response(int status) {
+        Response response = Mockito.mock(Response.class);
+        Mockito.when(response.getStatus()).thenReturn(status);
+        return response;
+    }
+}
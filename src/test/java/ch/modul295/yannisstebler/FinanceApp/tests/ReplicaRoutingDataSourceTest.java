@@ -0,0 +1,120 @@
+package ch.modul295.yannisstebler.FinanceApp.tests;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import ch.modul295.yannisstebler.financeapp.config.ReplicaRoutingDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Two in-memory H2 databases stand in for the primary and the replica; each one names itself in the origin table,
+ * and the replica reports the lag stored in its replication_lag table.
+ */
+public class ReplicaRoutingDataSourceTest {
+
+    private static final String PRIMARY_URL = "jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1";
+
+    private static final String REPLICA_URL = "jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1";
+
+    private HikariDataSource primary;
+
+    private ReplicaRoutingDataSource replicaDataSource;
+
+    private JdbcTemplate replicaAdmin;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private TransactionTemplate readWrite;
+
+    private TransactionTemplate readOnly;
+
+    @BeforeEach
+    public void setup() {
+        JdbcTemplate primaryAdmin = new JdbcTemplate(new DriverManagerDataSource(PRIMARY_URL));
+        primaryAdmin.execute("CREATE TABLE origin (name varchar(20))");
+        primaryAdmin.update("INSERT INTO origin VALUES ('primary')");
+
+        replicaAdmin = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL));
+        replicaAdmin.execute("CREATE TABLE origin (name varchar(20))");
+        replicaAdmin.update("INSERT INTO origin VALUES ('replica')");
+        replicaAdmin.execute("CREATE TABLE replication_lag (seconds double precision)");
+        replicaAdmin.update("INSERT INTO replication_lag VALUES (0)");
+
+        primary = new HikariDataSource();
+        primary.setJdbcUrl(PRIMARY_URL);
+        HikariDataSource replica = new HikariDataSource();
+        replica.setJdbcUrl(REPLICA_URL);
+        replica.setPoolName("replica-1");
+        replica.setReadOnly(true);
+
+        replicaDataSource = new ReplicaRoutingDataSource(primary, List.of(replica), "SELECT seconds FROM replication_lag",
+                Duration.ofSeconds(5), new SimpleMeterRegistry());
+        replicaDataSource.afterPropertiesSet();
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primary);
+        dataSource.setReadOnlyDataSource(replicaDataSource);
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readWrite = new TransactionTemplate(transactionManager);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ReplicaRoutingDataSource.setPinnedToPrimary(false);
+        replicaDataSource.destroy();
+        new JdbcTemplate(primary).execute("DROP ALL OBJECTS");
+        primary.close();
+        replicaAdmin.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void testRoutesReadOnlyToReplicaOnceChecked() {
+        Assertions.assertEquals("primary", origin(readOnly));
+
+        replicaDataSource.checkLag();
+        Assertions.assertEquals("replica", origin(readOnly));
+        Assertions.assertEquals("primary", origin(readWrite));
+    }
+
+    @Test
+    public void testPinnedThreadReadsFromPrimary() {
+        replicaDataSource.checkLag();
+        ReplicaRoutingDataSource.setPinnedToPrimary(true);
+        Assertions.assertEquals("primary", origin(readOnly));
+
+        ReplicaRoutingDataSource.setPinnedToPrimary(false);
+        Assertions.assertEquals("replica", origin(readOnly));
+    }
+
+    @Test
+    public void testSkipsLaggingReplicaUntilCaughtUp() {
+        replicaAdmin.update("UPDATE replication_lag SET seconds = 30");
+        replicaDataSource.checkLag();
+        Assertions.assertEquals("primary", origin(readOnly));
+
+        replicaAdmin.update("UPDATE replication_lag SET seconds = 0.5");
+        replicaDataSource.checkLag();
+        Assertions.assertEquals("replica", origin(readOnly));
+    }
+
+    /**
+     * Helper method to read the name of the database a transaction runs on.
+     */
+    private String origin(TransactionTemplate transactionTemplate) {
+        return transactionTemplate.execute(status -> jdbcTemplate.queryForObject("SELECT name FROM origin", String.class));
+    }
+}
@@ -0,0 +1,54 @@
+package ch.modul295.yannisstebler.FinanceApp.tests;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ch.modul295.yannisstebler.financeapp.services.ResourceVersionService;
+import ch.modul295.yannisstebler.financeapp.services.ResourceVersionService.Resource;
+
+/**
+ * Runs fully offline: no transaction is active, so changes bump the versions right away.
+ */
+public class ResourceVersionServiceTest {
+
+    @Test
+    public void testETagChangesOnlyWithOwnView() {
+        ResourceVersionService resourceVersionService = resourceVersionService(Duration.ofHours(1));
+        String eTag = resourceVersionService.getETag(Resource.TRANSACTIONS, "testuser");
+        String adminETag = resourceVersionService.getETag(Resource.TRANSACTIONS, null);
+
+        resourceVersionService.changed("otheruser", Resource.TRANSACTIONS);
+        resourceVersionService.changed("testuser", Resource.BUDGETS);
+        Assertions.assertEquals(eTag, resourceVersionService.getETag(Resource.TRANSACTIONS, "testuser"));
+        Assertions.assertNotEquals(adminETag, resourceVersionService.getETag(Resource.TRANSACTIONS, null));
+
+        resourceVersionService.changed("testuser", Resource.TRANSACTIONS);
+        Assertions.assertNotEquals(eTag, resourceVersionService.getETag(Resource.TRANSACTIONS, "testuser"));
+    }
+
+    @Test
+    public void testETagOfAnotherInstanceNeverMatches() {
+        Assertions.assertNotEquals(resourceVersionService(Duration.ofHours(1)).getETag(Resource.BUDGETS, "testuser"),
+                resourceVersionService(Duration.ofHours(1)).getETag(Resource.BUDGETS, "testuser"));
+    }
+
+    @Test
+    public void testETagExpiresAfterMaxAge() throws Exception {
+        // Writes of another instance are not seen, so only the max age bounds how long they stay unnoticed
+        ResourceVersionService resourceVersionService = resourceVersionService(Duration.ofMillis(50));
+        String eTag = resourceVersionService.getETag(Resource.CATEGORIES, "testuser");
+
+        Thread.sleep(60);
+
+        Assertions.assertNotEquals(eTag, resourceVersionService.getETag(Resource.CATEGORIES, "testuser"));
+    }
+
+    private static ResourceVersionService resourceVersionService(Duration maxAge) {
+        ResourceVersionService resourceVersionService = new ResourceVersionService();
+        ReflectionTestUtils.setField(resourceVersionService, "maxAge", maxAge);
+        return resourceVersionService;
+    }
+}
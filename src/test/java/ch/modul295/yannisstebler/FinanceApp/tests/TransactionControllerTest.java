@@ -0,0 +1,117 @@
+package ch.modul295.yannisstebler.FinanceApp.tests;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ch.modul295.yannisstebler.financeapp.controller.TransactionController;
+import ch.modul295.yannisstebler.financeapp.model.Category;
+import ch.modul295.yannisstebler.financeapp.model.Transaction;
+import ch.modul295.yannisstebler.financeapp.model.dto.TransactionDTO;
+import ch.modul295.yannisstebler.financeapp.repository.BalanceIndexRepository;
+import ch.modul295.yannisstebler.financeapp.repository.TransactionRepository;
+import ch.modul295.yannisstebler.financeapp.security.AuthenticatedUser;
+import ch.modul295.yannisstebler.financeapp.services.BalanceService;
+import ch.modul295.yannisstebler.financeapp.services.CategoryService;
+import ch.modul295.yannisstebler.financeapp.services.IdempotencyService;
+import ch.modul295.yannisstebler.financeapp.services.ResourceVersionService;
+import ch.modul295.yannisstebler.financeapp.services.SpendRollupService;
+import ch.modul295.yannisstebler.financeapp.services.TransactionService;
+
+/**
+ * Runs fully offline: the controller calls the real transaction and balance services, whose repositories are mocks.
+ * Checks that incomplete transactions are answered with 400 instead of failing in the balance upkeep.
+ */
+public class TransactionControllerTest {
+
+    private static final AuthenticatedUser USER = new AuthenticatedUser("testuser", false);
+
+    private BalanceIndexRepository balanceIndexRepository;
+
+    private Transaction existing;
+
+    private TransactionController transactionController;
+
+    @BeforeEach
+    public void setup() {
+        existing = new Transaction();
+        existing.setId(1L);
+        existing.setKeycloak_username("testuser");
+        existing.setAmount(new BigDecimal("40"));
+        existing.setType(Transaction.Type.EXPENSE);
+        existing.setDate(Date.from(LocalDate.of(2025, 3, 14).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+        TransactionRepository transactionRepository = Mockito.mock(TransactionRepository.class);
+        Mockito.when(transactionRepository.findByIdAndOwnerForUpdate(1L, "testuser")).thenReturn(Optional.of(existing));
+
+        balanceIndexRepository = Mockito.mock(BalanceIndexRepository.class);
+        BalanceService balanceService = new BalanceService();
+        ReflectionTestUtils.setField(balanceService, "balanceIndexRepository", balanceIndexRepository);
+
+        Category category = new Category();
+        category.setId(1L);
+        CategoryService categoryService = Mockito.mock(CategoryService.class);
+        Mockito.when(categoryService.getCachedCategory(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(Optional.of(category));
+
+        TransactionService transactionService = new TransactionService();
+        ReflectionTestUtils.setField(transactionService, "transactionRepository", transactionRepository);
+        ReflectionTestUtils.setField(transactionService, "categoryService", categoryService);
+        ReflectionTestUtils.setField(transactionService, "spendRollupService", Mockito.mock(SpendRollupService.class));
+        ReflectionTestUtils.setField(transactionService, "balanceService", balanceService);
+        ReflectionTestUtils.setField(transactionService, "resourceVersionService", Mockito.mock(ResourceVersionService.class));
+
+        transactionController = new TransactionController();
+        ReflectionTestUtils.setField(transactionController, "transactionService", transactionService);
+        ReflectionTestUtils.setField(transactionController, "idempotencyService",
+                new IdempotencyService(Duration.ofHours(1), 1000, Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testUpdateWithoutDateUsesNow() {
+        Transaction transaction = new Transaction();
+        transaction.setAmount(new BigDecimal("50"));
+        transaction.setType(Transaction.Type.EXPENSE);
+        Date before = new Date();
+
+        Assertions.assertEquals(HttpStatus.NO_CONTENT, transactionController.updateTransaction(USER, 1L, transaction).getStatusCode());
+        Assertions.assertFalse(existing.getDate().before(before));
+        Assertions.assertEquals(0, new BigDecimal("50").compareTo(existing.getAmount()));
+    }
+
+    @Test
+    public void testUpdateWithoutAmountOrTypeIsRejected() {
+        Transaction withoutAmount = new Transaction();
+        withoutAmount.setType(Transaction.Type.EXPENSE);
+        Transaction withoutType = new Transaction();
+        withoutType.setAmount(new BigDecimal("50"));
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, transactionController.updateTransaction(USER, 1L, withoutAmount).getStatusCode());
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, transactionController.updateTransaction(USER, 1L, withoutType).getStatusCode());
+        Assertions.assertEquals(0, new BigDecimal("40").compareTo(existing.getAmount()));
+        Mockito.verify(balanceIndexRepository, Mockito.never()).addToNodes(ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testCreateWithoutAmountOrTypeIsRejected() {
+        TransactionDTO withoutAmount = new TransactionDTO();
+        withoutAmount.setCategory_id(1L);
+        withoutAmount.setType(TransactionDTO.Type.EXPENSE);
+        TransactionDTO withoutType = new TransactionDTO();
+        withoutType.setCategory_id(1L);
+        withoutType.setAmount(new BigDecimal("50"));
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, transactionController.createTransaction(USER, withoutAmount, null).getStatusCode());
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, transactionController.createTransaction(USER, withoutType, null).getStatusCode());
+        Mockito.verify(balanceIndexRepository, Mockito.never()).addToNodes(ArgumentMatchers.any());
+    }
+}